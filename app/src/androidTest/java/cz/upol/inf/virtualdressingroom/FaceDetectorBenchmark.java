@@ -0,0 +1,93 @@
+package cz.upol.inf.virtualdressingroom;
+
+import android.content.Context;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import cz.upol.inf.dressingroom.Convert;
+import cz.upol.inf.dressingroom.DressingRoom;
+import cz.upol.inf.dressingroom.FaceDetector;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares latency and recall of the face detection backends on the test photos shown by PhotoActivity. Results are written
+ * to logcat (tag FaceDetectorBenchmark).
+ */
+@RunWith(AndroidJUnit4.class)
+public class FaceDetectorBenchmark {
+    private static final String TAG = "FaceDetectorBenchmark";
+    private static final int[] FACE_PHOTOS = {R.drawable.man, R.drawable.woman, R.drawable.woman2, R.drawable.woman3, R.drawable.woman4};
+    private static final int NO_FACE_PHOTO = R.drawable.test_noface;
+    private static final int WARMUP_RUNS = 2;
+    private static final int MEASURED_RUNS = 10;
+    private static final double MIN_FACE_SIZE = 0.07; // same limits as DressingRoom uses for standalone images
+    private static final double MAX_FACE_SIZE = 0.8;
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    @Test
+    public void compareBackends() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        Mat[] facePhotos = new Mat[FACE_PHOTOS.length];
+        for (int i = 0; i < FACE_PHOTOS.length; i++) facePhotos[i] = load(context, FACE_PHOTOS[i]);
+        Mat noFacePhoto = load(context, NO_FACE_PHOTO);
+
+        Log.i(TAG, "backend  median ms  recall  false detections");
+        for (FaceDetector.Backend backend : FaceDetector.Backend.values()) {
+            FaceDetector detector = DressingRoom.createFaceDetector(context, backend);
+
+            double[] latencies = new double[FACE_PHOTOS.length * MEASURED_RUNS];
+            int detected = 0;
+            for (int i = 0; i < facePhotos.length; i++) {
+                for (int run = 0; run < WARMUP_RUNS; run++) detect(detector, facePhotos[i]);
+                boolean found = false;
+                for (int run = 0; run < MEASURED_RUNS; run++) {
+                    long start = System.nanoTime();
+                    found = !detect(detector, facePhotos[i]).isEmpty();
+                    latencies[i*MEASURED_RUNS + run] = (System.nanoTime() - start) / 1e6;
+                }
+                if(found) detected++;
+            }
+            int falseDetections = detect(detector, noFacePhoto).size();
+
+            Arrays.sort(latencies);
+            Log.i(TAG, String.format(Locale.US, "%-8s %9.1f  %d/%d  %d", backend, latencies[latencies.length/2],
+                    detected, FACE_PHOTOS.length, falseDetections));
+
+            // Haar cascades are the reference, PhotoActivity relies on them to find a face in every test photo
+            if(backend == FaceDetector.Backend.HAAR) {
+                assertEquals(FACE_PHOTOS.length, detected);
+                assertEquals(0, falseDetections);
+            }
+        }
+
+        for (Mat photo : facePhotos) photo.release();
+        noFacePhoto.release();
+    }
+
+    private static Mat load(Context context, int drawable) {
+        return Convert.bitmapToMat(BitmapFactory.decodeResource(context.getResources(), drawable));
+    }
+
+    private static List<Rect> detect(FaceDetector detector, Mat photo) {
+        return detector.detect(photo, (int) Math.round(photo.cols()*MIN_FACE_SIZE), (int) Math.round(photo.cols()*MAX_FACE_SIZE));
+    }
+}
@@ -90,8 +90,12 @@ public class CameraActivity extends FragmentActivity implements
         dress = new Top(dressBitmap, new Point(217, 90), new Point(556, 90));
         outfit = new Outfit(null, null, null);
 
-        // initialize dressing room
+        // initialize dressing room, faces in camera frames are detected in downscaled images around the previous face
+        // and tracked between detections
         DressingRoom.loadClassifiers(this);
+        DressingRoom.setDetectionDownscaling(true);
+        DressingRoom.setLocalSearch(true);
+        DressingRoom.setFaceTracking(5);
 
         // Permissions check
         if (ActivityCompat.checkSelfPermission(this, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
@@ -1,10 +1,8 @@
 package cz.upol.inf.virtualdressingroom;
 
 import android.os.Bundle;
-
-import android.os.Handler;
-import android.os.HandlerThread;
 import android.util.Log;
+
 import android.view.LayoutInflater;
 import android.view.SurfaceView;
 import android.view.View;
@@ -13,34 +11,25 @@ import androidx.fragment.app.Fragment;
 
 import org.opencv.android.CameraBridgeViewBase;
 import org.opencv.android.JavaCamera2View;
-import org.opencv.core.Core;
 import org.opencv.core.Mat;
-import org.opencv.core.Rect;
-
-import java.util.concurrent.atomic.AtomicBoolean;
 
-import cz.upol.inf.dressingroom.DressingRoom;
+import cz.upol.inf.dressingroom.DressingRoomMetrics;
 import cz.upol.inf.dressingroom.Outfit;
+import cz.upol.inf.dressingroom.SensorOrientation;
+import cz.upol.inf.dressingroom.TryOnPipeline;
 
 public class CameraFragment extends Fragment implements CameraBridgeViewBase.CvCameraViewListener2 {
+    private static final String TAG = "CameraFragment";
+    private static final boolean SHOW_METRICS = BuildConfig.DEBUG; // latency of the engine's stages is logged and drawn into frames
+    private static final long METRICS_LOG_INTERVAL = 5000; // milliseconds
+
     private volatile Outfit outfit = new Outfit();
 
     private JavaCamera2View javaCameraView;
     private View view;
 
-    // background thread
-    private static FaceDetection faceDetectionRunnable;
-    private static Handler handler;
-
-    // shared variables
-    private static final AtomicBoolean isThreadReadyForImage;
-    private static final Object rSync = new Object();
-    private static volatile Mat inputImageShared;
-    private static volatile Rect faceROIShared = new Rect();
-
-    static {
-        isThreadReadyForImage = new AtomicBoolean(true);
-    }
+    // background threads (color conversion, face detection, waist calibration, compositing and display)
+    private TryOnPipeline pipeline;
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
@@ -48,14 +37,11 @@ public class CameraFragment extends Fragment implements CameraBridgeViewBase.CvC
         view = inflater.inflate(R.layout.camera_fragment, container, false);
         javaCameraView = view.findViewById(R.id.javaCameraView);
 
-        inputImageShared = new Mat();
-        faceROIShared = new Rect();
+        // activity is in landscape mode, but the camera is used in portrait mode, frames need to be rotated by 90 degrees
+        pipeline = new TryOnPipeline(SensorOrientation.ROTATION_90);
 
-        // background thread
-        HandlerThread handlerThread = new HandlerThread("HandlerThread");
-        handlerThread.start();
-        handler = new Handler(handlerThread.getLooper());
-        faceDetectionRunnable = new FaceDetection();
+        DressingRoomMetrics.setEnabled(SHOW_METRICS);
+        if(SHOW_METRICS) DressingRoomMetrics.setListener(snapshot -> Log.d(TAG, snapshot.toString()), METRICS_LOG_INTERVAL);
 
         return view;
     }
@@ -65,6 +51,7 @@ public class CameraFragment extends Fragment implements CameraBridgeViewBase.CvC
     }
     protected synchronized void setOutfit(Outfit outfit) {
         this.outfit = new Outfit(outfit);
+        if(pipeline != null) pipeline.setOutfit(outfit);
     }
 
 
@@ -95,72 +82,25 @@ public class CameraFragment extends Fragment implements CameraBridgeViewBase.CvC
 
     @Override
     public void onCameraViewStarted(int width, int height) {
-        mRGBA = new Mat();
-        mResult = new Mat();
+        pipeline.setOutfit(getOutfit());
+        pipeline.start();
     }
 
     @Override
     public void onCameraViewStopped() {
-        if(mRGBA != null) mRGBA.release();
-        if(mResult != null) mResult.release();
+        pipeline.stop();
     }
 
-    private Mat mRGBA, mResult;
-    private Rect rFace = new Rect();
     @Override
     public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
-        //getting mat from InputFrame
-        mRGBA = inputFrame.rgba();
-
-        // rotating camera input (compensating for landscape mode)
-        Core.transpose(mRGBA, mResult);
-        Core.flip(mResult, mResult, 1);
-
-        // giving input to background thread
-        if (isThreadReadyForImage.compareAndSet(true, false)) {
-            mResult.copyTo(inputImageShared);
-            handler.post(faceDetectionRunnable);
-        }
-
-        // getting face detection output
-        synchronized (rSync) {
-            rFace = faceROIShared;
-        }
-
-        // if face is detected add clothes
-        if(!rFace.empty()) {
-            DressingRoom.addClothesRT(mResult, getOutfit(), rFace);
-            // rotating result back, so it can be displayed properly
-            Core.transpose(mResult, mRGBA);
-            Core.flip(mRGBA, mRGBA, 0);
-        }
-
-        return mRGBA;
-    }
-
-
-
-
-
-    public static class FaceDetection implements Runnable {
-        Rect rThreadFace;
-        @Override
-        public void run() {
-            if(!inputImageShared.empty()) {
-                // face detection
-                rThreadFace = DressingRoom.getFace(inputImageShared);
-
-                // giving UI thread face roi
-                synchronized (rSync) {
-                    faceROIShared = rThreadFace;
-                }
-
-                // is ready to accept new image
-                isThreadReadyForImage.set(true);
-            }
-        }
-
-
+        //getting mat from InputFrame and giving it to the pipeline, the pipeline keeps the frame's pixels instead of copying them,
+        // so the frame isn't touched afterward (JavaCamera2View allocates a new Mat for every frame)
+        pipeline.submitFrame(inputFrame.rgba());
+
+        // displaying the newest frame with clothes, nothing new is drawn until the first frame leaves the pipeline
+        Mat result = pipeline.getDisplayFrame();
+        if(result != null && SHOW_METRICS) DressingRoomMetrics.drawOverlay(result, SensorOrientation.ROTATION_90);
+        return result;
     }
 
-}
\ No newline at end of file
+}
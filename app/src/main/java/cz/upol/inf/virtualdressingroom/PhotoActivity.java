@@ -54,6 +54,8 @@ public class PhotoActivity extends AppCompatActivity {
 
         // initializing DressingRoom (classifiers are loaded)
         DressingRoom.loadClassifiers(this);
+        // both face classifiers run at the same time, photos without a face aren't searched twice in a row
+        DressingRoom.setConcurrentStillDetection(true);
 
         // getting images of clothing
         Bitmap tShirtBitmap = BitmapFactory.decodeResource(getResources(), R.drawable.t_shirt_men);
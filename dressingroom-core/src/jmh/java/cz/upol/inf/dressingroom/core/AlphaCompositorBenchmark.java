@@ -0,0 +1,60 @@
+package cz.upol.inf.dressingroom.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/***
+ * Blending of a 360x420 top (about a third of its pixels transparent, edges semi-transparent) into a 640x480 frame,
+ * and of a 1500x2000 top into a 12 Mpx photo.
+ */
+@State(Scope.Thread)
+public class AlphaCompositorBenchmark {
+    private static final int FRAME_WIDTH = 640, FRAME_HEIGHT = 480;
+    private static final int SPRITE_WIDTH = 360, SPRITE_HEIGHT = 420;
+    private static final int PHOTO_WIDTH = 4000, PHOTO_HEIGHT = 3000;
+    private static final int PHOTO_SPRITE_WIDTH = 1500, PHOTO_SPRITE_HEIGHT = 2000;
+
+    private ByteBuffer frame, sprite, photo, photoSprite;
+
+    @Setup
+    public void setUp() {
+        frame = image(FRAME_WIDTH, FRAME_HEIGHT, false);
+        sprite = image(SPRITE_WIDTH, SPRITE_HEIGHT, true);
+        photo = image(PHOTO_WIDTH, PHOTO_HEIGHT, false);
+        photoSprite = image(PHOTO_SPRITE_WIDTH, PHOTO_SPRITE_HEIGHT, true);
+    }
+
+    private static ByteBuffer image(int width, int height, boolean sprite) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(width * height * AlphaCompositor.CHANNELS);
+        Random random = new Random(42);
+        for (int i = 0; i < buffer.capacity(); i += AlphaCompositor.CHANNELS) {
+            int x = (i / AlphaCompositor.CHANNELS) % width;
+            // transparent sides, semi-transparent edges and opaque middle
+            int alpha = !sprite ? 255 : x < width / 6 || x > width * 5 / 6 ? 0 : x < width / 5 || x > width * 4 / 5 ? 128 : 255;
+            for (int c = 0; c < 3; c++) buffer.put(i + c, (byte) (random.nextInt(256) * alpha / 255));
+            buffer.put(i + 3, (byte) alpha);
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    public ByteBuffer blendFrame() {
+        int stride = FRAME_WIDTH * AlphaCompositor.CHANNELS;
+        AlphaCompositor.blend(sprite, 0, SPRITE_WIDTH * AlphaCompositor.CHANNELS, frame, 40 * stride + 140 * AlphaCompositor.CHANNELS, stride,
+                SPRITE_WIDTH, SPRITE_HEIGHT);
+        return frame;
+    }
+
+    @Benchmark
+    public ByteBuffer blendPhotoParallel() {
+        int stride = PHOTO_WIDTH * AlphaCompositor.CHANNELS;
+        AlphaCompositor.blendParallel(photoSprite, 0, PHOTO_SPRITE_WIDTH * AlphaCompositor.CHANNELS, photo, 800 * stride + 1200 * AlphaCompositor.CHANNELS,
+                stride, PHOTO_SPRITE_WIDTH, PHOTO_SPRITE_HEIGHT);
+        return photo;
+    }
+}
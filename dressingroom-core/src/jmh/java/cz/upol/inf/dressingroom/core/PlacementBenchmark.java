@@ -0,0 +1,36 @@
+package cz.upol.inf.dressingroom.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/***
+ * Geometry calculated for every garment in every frame: anchors on the body, reference points of the clothes and clipping of the overlay.
+ */
+@State(Scope.Thread)
+public class PlacementBenchmark {
+    private final IntRect face = new IntRect(260, 80, 120, 150);
+    private final Anchor left = new Anchor(112.5, 240);
+    private final Anchor right = new Anchor(398.25, 244);
+
+    @Benchmark
+    public void anchors(Blackhole blackhole) {
+        blackhole.consume(Placement.noseBridge(face));
+        blackhole.consume(Placement.chin(face));
+        blackhole.consume(Placement.neck(face));
+        blackhole.consume(Placement.faceClothingScale(face, 286));
+    }
+
+    @Benchmark
+    public IntRect overlayRegion() {
+        // clothing reaching outside the bottom and the left side of the frame
+        return Placement.overlayRegion(Placement.neck(face), new Anchor(300, 40), 620, 700, 640, 480);
+    }
+
+    @Benchmark
+    public void referenceGeometry(Blackhole blackhole) {
+        blackhole.consume(Placement.referenceCenter(left, right));
+        blackhole.consume(Placement.referenceWidth(left, right));
+    }
+}
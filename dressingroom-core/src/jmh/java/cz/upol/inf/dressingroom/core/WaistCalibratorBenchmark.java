@@ -0,0 +1,33 @@
+package cz.upol.inf.dressingroom.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/***
+ * Real time calibration of the waist, noisy waist widths are added until the waist is calibrated (precision and matches used in real time).
+ */
+@State(Scope.Thread)
+public class WaistCalibratorBenchmark {
+    private static final int VALUES = 200;
+    private final WaistCalibrator calibrator = new WaistCalibrator();
+    private final double[] values = new double[VALUES];
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < VALUES; i++) values[i] = 1.9 + random.nextGaussian()*0.1; // waist width relative to face width
+    }
+
+    @Benchmark
+    public double calibrate() {
+        calibrator.reset();
+        for (double value : values) {
+            if(calibrator.add(value, 0.06, 25)) break;
+        }
+        return calibrator.getWaist();
+    }
+}
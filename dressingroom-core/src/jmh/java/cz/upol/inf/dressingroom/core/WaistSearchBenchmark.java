@@ -0,0 +1,85 @@
+package cz.upol.inf.dressingroom.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/***
+ * Search for the waist in edges of a 640x480 frame with a face 120 pixels wide. Edges are noisy, so only some rows match.
+ * Building of the edge map is measured on contour points of the left hip region (a few vertical contours with noise)
+ * and on an edge mask of the same region with the same edges.
+ */
+@State(Scope.Thread)
+public class WaistSearchBenchmark {
+    private final IntRect face = new IntRect(260, 80, 120, 150);
+    private int[] leftEdges;
+    private int[] rightEdges;
+    private IntRect leftRegion;
+    private IntRect rightRegion;
+    private int matches;
+    private int[] contourPoints;
+    private int contourPointCount;
+    private final EdgeMap edgeMap = new EdgeMap(true);
+    private byte[] edgeMask;
+
+    @Setup
+    public void setUp() {
+        leftRegion = Placement.leftHipRegion(face);
+        rightRegion = Placement.rightHipRegion(face);
+        leftEdges = new int[leftRegion.height];
+        rightEdges = new int[rightRegion.height];
+        Arrays.fill(leftEdges, WaistSearch.NO_EDGE);
+        Arrays.fill(rightEdges, WaistSearch.NO_EDGE);
+        Random random = new Random(42);
+        for (int y = 0; y < leftEdges.length; y++) {
+            if(random.nextInt(4) > 0) leftEdges[y] = 60 + random.nextInt(40);
+            if(random.nextInt(4) > 0) rightEdges[y] = 80 + random.nextInt(40);
+        }
+
+        contourPointCount = 6 * leftRegion.height;
+        contourPoints = new int[2 * contourPointCount];
+        for (int i = 0; i < contourPointCount; i++) {
+            contourPoints[2*i] = (i % 6) * 30 + random.nextInt(5);
+            contourPoints[2*i + 1] = i / 6;
+        }
+        edgeMask = new byte[leftRegion.width * leftRegion.height];
+        for (int i = 0; i < contourPointCount; i++) {
+            int x = Math.min(leftRegion.width - 1, contourPoints[2*i]);
+            edgeMask[contourPoints[2*i + 1] * leftRegion.width + x] = (byte) 255;
+        }
+    }
+
+    @Benchmark
+    public int[] scanEdgeMask() {
+        edgeMap.reset(leftRegion.height);
+        edgeMap.scanMask(edgeMask, leftRegion.width, leftRegion.height);
+        return edgeMap.getEdges();
+    }
+
+    @Benchmark
+    public int[] buildEdgeMap() {
+        edgeMap.reset(leftRegion.height);
+        edgeMap.addPoints(contourPoints, contourPointCount);
+        return edgeMap.getEdges();
+    }
+
+    @Benchmark
+    public int search() {
+        matches = 0;
+        WaistSearch.search(leftEdges, leftRegion.x, rightEdges, rightRegion.x, face.x + face.width/2, 640*Placement.MAX_WAIST_REF_DIFFERENCE,
+                Placement.waistSearchCenter(face), waistWidth -> ++matches >= 25);
+        return matches;
+    }
+
+    @Benchmark
+    public void searchOrder(Blackhole blackhole) {
+        int center = Placement.waistSearchCenter(face);
+        int rows = WaistSearch.rowCount(center);
+        for (int i = 0; i < rows; i++) blackhole.consume(WaistSearch.row(i, center));
+    }
+}
@@ -0,0 +1,90 @@
+package cz.upol.inf.dressingroom.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.stream.IntStream;
+
+/***
+ * Alpha blending (source over) of a premultiplied RGBA sprite into an RGBA image using 8-bit fixed-point arithmetic:
+ * dst = src + dst * (255 - srcAlpha) / 255, division by 255 is exact with rounding. Images are read from and written to ByteBuffers
+ * (usually direct buffers shared with OpenCV's Mats), so blending doesn't allocate any memory. Large images can be blended
+ * in parallel by bands of rows.
+ */
+public final class AlphaCompositor {
+    public static final int CHANNELS = 4;
+    public static final int PARALLEL_THRESHOLD = 512 * 512; // pixels, smaller images are blended in the calling thread
+    private static final int BAND_HEIGHT = 32; // rows blended by one task
+
+    private AlphaCompositor() {}
+
+    /***
+     * Blends the sprite into the image.
+     * @param src premultiplied RGBA sprite, color mustn't exceed alpha
+     * @param srcOffset index of the first byte of the blended area in src
+     * @param srcStride bytes between two rows of src
+     * @param dst RGBA image
+     * @param dstOffset index of the first byte of the blended area in dst
+     * @param dstStride bytes between two rows of dst
+     * @param width width of the blended area in pixels
+     * @param height height of the blended area in pixels
+     */
+    public static void blend(ByteBuffer src, int srcOffset, int srcStride, ByteBuffer dst, int dstOffset, int dstStride, int width, int height) {
+        checkOrder(src, dst);
+        blendRows(src, srcOffset, srcStride, dst, dstOffset, dstStride, width, 0, height);
+    }
+
+    /***
+     * Same as method blend(), but the rows are blended in parallel (common ForkJoinPool), if the area is larger than PARALLEL_THRESHOLD.
+     * Meant for large photos, unlike method blend() it allocates a few objects per call.
+     */
+    public static void blendParallel(ByteBuffer src, int srcOffset, int srcStride, ByteBuffer dst, int dstOffset, int dstStride, int width, int height) {
+        checkOrder(src, dst);
+        if((long) width * height < PARALLEL_THRESHOLD) {
+            blendRows(src, srcOffset, srcStride, dst, dstOffset, dstStride, width, 0, height);
+            return;
+        }
+        int bands = (height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+        IntStream.range(0, bands).parallel().forEach(band -> blendRows(src, srcOffset, srcStride, dst, dstOffset, dstStride, width,
+                band * BAND_HEIGHT, Math.min(height, (band + 1) * BAND_HEIGHT)));
+    }
+
+    private static void checkOrder(ByteBuffer src, ByteBuffer dst) {
+        if(src.order() != dst.order()) throw new IllegalArgumentException("source and destination buffers must have the same byte order");
+    }
+
+    private static void blendRows(ByteBuffer src, int srcOffset, int srcStride, ByteBuffer dst, int dstOffset, int dstStride,
+                                  int width, int fromRow, int toRow) {
+        // pixels are read as ints, all four channels are blended at once in two 16-bit lanes per int
+        int alphaShift = src.order() == ByteOrder.BIG_ENDIAN ? 0 : 24;
+        for (int y = fromRow; y < toRow; y++) {
+            int s = srcOffset + y * srcStride;
+            int d = dstOffset + y * dstStride;
+            for (int x = 0; x < width; x++, s += CHANNELS, d += CHANNELS) {
+                int srcPixel = src.getInt(s);
+                int alpha = (srcPixel >>> alphaShift) & 0xFF;
+                if(alpha == 0) continue; // transparent, destination stays
+                if(alpha == 255) {
+                    dst.putInt(d, srcPixel); // opaque, premultiplied color is the color
+                    continue;
+                }
+                int inverse = 255 - alpha;
+                int dstPixel = dst.getInt(d);
+                int even = div255Lanes((dstPixel & 0x00FF00FF) * inverse);
+                int odd = div255Lanes(((dstPixel >>> 8) & 0x00FF00FF) * inverse);
+                dst.putInt(d, srcPixel + (even | (odd << 8))); // color doesn't exceed alpha, so channels don't overflow
+            }
+        }
+    }
+
+    /*** Divides both 16-bit lanes by 255 with rounding, see div255(). */
+    private static int div255Lanes(int lanes) {
+        lanes += 0x00800080;
+        return ((lanes + ((lanes >>> 8) & 0x00FF00FF)) >>> 8) & 0x00FF00FF;
+    }
+
+    /*** @return value / 255 rounded, exact for values from 0 to 255 * 255 */
+    static int div255(int value) {
+        value += 128;
+        return (value + (value >> 8)) >> 8;
+    }
+}
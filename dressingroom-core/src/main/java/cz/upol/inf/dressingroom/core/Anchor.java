@@ -0,0 +1,32 @@
+package cz.upol.inf.dressingroom.core;
+
+/***
+ * Immutable point with sub-pixel precision, used for reference points of the clothes and the points on the body they are attached to.
+ */
+public final class Anchor {
+    public final double x;
+    public final double y;
+
+    public Anchor(double x, double y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) return true;
+        if(!(o instanceof Anchor)) return false;
+        Anchor anchor = (Anchor) o;
+        return Double.compare(x, anchor.x) == 0 && Double.compare(y, anchor.y) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Double.hashCode(x)*31 + Double.hashCode(y);
+    }
+
+    @Override
+    public String toString() {
+        return "{" + x + ", " + y + "}";
+    }
+}
@@ -0,0 +1,105 @@
+package cz.upol.inf.dressingroom.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/***
+ * Splits face detection in a large image into independent tasks, that can run in parallel. Small faces are searched in overlapping tiles,
+ * every tile is twice as large as the largest face searched in it (tileMaxFace) and neighbouring tiles overlap by this face, so every face
+ * up to tileMaxFace lies completely inside at least one tile. Larger faces are searched in the whole image, which is cheap, because
+ * the detection starts at a coarse scale. Faces detected twice (in overlaps of the tiles or near tileMaxFace) are merged by suppress().
+ */
+public final class DetectionTiles {
+    public static final int TILES_PER_WORKER = 2; // more tiles than workers, so workers finishing early take over the remaining tiles
+    public static final double MAX_OVERLAP = 0.5; // faces overlapping by more than this part of the smaller face are the same face
+
+    public final List<IntRect> tiles; // regions of the image, faces from minFace to tileMaxFace are searched in them
+    public final int tileMaxFace;
+    public final boolean largeFaces; // true if faces from tileMaxFace to maxFace have to be searched in the whole image
+
+    private DetectionTiles(List<IntRect> tiles, int tileMaxFace, boolean largeFaces) {
+        this.tiles = tiles;
+        this.tileMaxFace = tileMaxFace;
+        this.largeFaces = largeFaces;
+    }
+
+    /***
+     * Plans tiles for the given number of workers. Tiles are made smaller until there are at least TILES_PER_WORKER tiles for every worker,
+     * but the largest face searched in them is never smaller than twice the smallest face. If the image isn't large enough, one tile
+     * covering the whole image is returned.
+     * @param width width of the image
+     * @param height height of the image
+     * @param minFace the smallest searched face
+     * @param maxFace the largest searched face
+     * @param workers number of parallel workers
+     * @return planned tiles
+     */
+    public static DetectionTiles plan(int width, int height, int minFace, int maxFace, int workers) {
+        int tileFace = Math.min(maxFace, (Math.max(width, height) + 1) / 2);
+        if(tileFace < 1) return new DetectionTiles(Collections.singletonList(new IntRect(0, 0, width, height)), maxFace, false);
+        while (tileCount(width, height, tileFace) < TILES_PER_WORKER*workers && tileFace / 2 >= 2*minFace) tileFace /= 2;
+        if(workers <= 1 || tileCount(width, height, tileFace) <= 1) {
+            return new DetectionTiles(Collections.singletonList(new IntRect(0, 0, width, height)), maxFace, false);
+        }
+
+        List<IntRect> tiles = new ArrayList<>();
+        int tileSize = 2*tileFace;
+        for (int y : positions(height, tileFace)) {
+            for (int x : positions(width, tileFace)) {
+                tiles.add(new IntRect(x, y, tileSize, tileSize).clipTo(width, height));
+            }
+        }
+        return new DetectionTiles(tiles, tileFace, tileFace < maxFace);
+    }
+
+    private static int tileCount(int width, int height, int tileFace) {
+        return positions(width, tileFace).size() * positions(height, tileFace).size();
+    }
+
+    /*** @return starts of the tiles along one side of the image, tiles are 2*step long, the last one reaches the end of the image */
+    private static List<Integer> positions(int length, int step) {
+        List<Integer> positions = new ArrayList<>();
+        int position = 0;
+        positions.add(position);
+        while (position + 2*step < length) {
+            position += step;
+            positions.add(position);
+        }
+        return positions;
+    }
+
+    /***
+     * Non-maximum suppression of detected faces. Faces are taken from the largest one and a face is dropped, if it overlaps an already
+     * kept face by more than maxOverlap of the smaller face's area (the same face detected in two tiles, or a part of a face cut by a tile).
+     * @param faces detected faces in image's coordinates
+     * @param maxOverlap the largest allowed overlap relative to the smaller face (e.g. MAX_OVERLAP)
+     * @return kept faces ordered from the largest one
+     */
+    public static List<IntRect> suppress(List<IntRect> faces, double maxOverlap) {
+        List<IntRect> sorted = new ArrayList<>(faces);
+        sorted.sort(Comparator.comparingLong((IntRect face) -> (long) face.width*face.height).reversed());
+        List<IntRect> kept = new ArrayList<>();
+        for (IntRect face : sorted) {
+            boolean duplicate = false;
+            for (IntRect keptFace : kept) {
+                if(overlap(face, keptFace) > maxOverlap) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if(!duplicate) kept.add(face);
+        }
+        return kept;
+    }
+
+    /*** @return area of the intersection relative to the area of the smaller rectangle */
+    static double overlap(IntRect a, IntRect b) {
+        long width = Math.min(a.x + a.width, b.x + b.width) - Math.max(a.x, b.x);
+        long height = Math.min(a.y + a.height, b.y + b.height) - Math.max(a.y, b.y);
+        if(width <= 0 || height <= 0) return 0;
+        long smaller = Math.min((long) a.width*a.height, (long) b.width*b.height);
+        return smaller == 0 ? 0 : (double) (width*height) / smaller;
+    }
+}
@@ -0,0 +1,100 @@
+package cz.upol.inf.dressingroom.core;
+
+import java.util.Arrays;
+
+/***
+ * Innermost edge of the body in every row of a hip region, the input of WaistSearch. Edges of the left hip region are the rightmost points
+ * of the contours, edges of the right hip region the leftmost points. Map is built in one pass over the contour points stored as pairs
+ * of primitive coordinates (the layout of OpenCV's MatOfPoint), or directly from an edge mask without building contours (scanMask()),
+ * so no point objects are created. Array of the edges is reused, while the number of rows doesn't change (the face's size is stable
+ * between frames).
+ *
+ * Instance should be used from one thread at a time.
+ */
+public final class EdgeMap {
+    private final boolean rightmost;
+    private int[] edges = new int[0];
+
+    /***
+     * @param rightmost true to keep the rightmost point in every row (left hip region), false to keep the leftmost point (right hip region)
+     */
+    public EdgeMap(boolean rightmost) {
+        this.rightmost = rightmost;
+    }
+
+    /***
+     * Removes all edges.
+     * @param rows number of rows of the region
+     */
+    public void reset(int rows) {
+        if(edges.length != rows) edges = new int[rows];
+        Arrays.fill(edges, WaistSearch.NO_EDGE);
+    }
+
+    /***
+     * Adds one contour point, points outside the rows are ignored.
+     * @param x X coordinate in region's coordinates
+     * @param y row in region's coordinates
+     */
+    public void add(int x, int y) {
+        if(y < 0 || y >= edges.length) return;
+        int edge = edges[y];
+        if(edge == WaistSearch.NO_EDGE || (rightmost ? x > edge : x < edge)) edges[y] = x;
+    }
+
+    /***
+     * Adds contour points stored as pairs of coordinates.
+     * @param xy coordinates x0, y0, x1, y1, ...
+     * @param count number of points
+     */
+    public void addPoints(int[] xy, int count) {
+        for (int i = 0; i < count; i++) add(xy[2*i], xy[2*i + 1]);
+    }
+
+    /***
+     * Scans an edge mask (e.g. output of Canny edge detection) row by row from the side of the torso and keeps the first edge in every row,
+     * which is the same edge as the innermost contour point, but no contours are built. Left hip region is scanned from the right,
+     * right hip region from the left.
+     * @param mask pixels of the mask, one byte per pixel, rows aren't padded, non-zero pixel is an edge
+     * @param width width of the mask
+     * @param height height of the mask, rows outside the map are ignored
+     */
+    public void scanMask(byte[] mask, int width, int height) {
+        int rows = Math.min(height, edges.length);
+        for (int y = 0; y < rows; y++) {
+            int rowStart = y * width;
+            int edge = WaistSearch.NO_EDGE;
+            if(rightmost) {
+                for (int x = width - 1; x >= 0; x--) {
+                    if(mask[rowStart + x] != 0) {
+                        edge = x;
+                        break;
+                    }
+                }
+            } else {
+                for (int x = 0; x < width; x++) {
+                    if(mask[rowStart + x] != 0) {
+                        edge = x;
+                        break;
+                    }
+                }
+            }
+            if(edge != WaistSearch.NO_EDGE) add(edge, y);
+        }
+    }
+
+    /*** @return the edge in the row, WaistSearch.NO_EDGE if the row has no edge */
+    public int get(int y) {
+        return edges[y];
+    }
+
+    /*** @return number of rows */
+    public int getRows() {
+        return edges.length;
+    }
+
+    /*** @return edges indexed by rows (see WaistSearch.search()), array is valid until the next reset() with a different number of rows */
+    public int[] getEdges() {
+        return edges;
+    }
+}
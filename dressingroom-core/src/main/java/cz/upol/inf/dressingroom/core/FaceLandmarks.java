@@ -0,0 +1,67 @@
+package cz.upol.inf.dressingroom.core;
+
+/***
+ * Five landmarks of a face detected by a DNN face detector (e.g. OpenCV's FaceDetectorYN): centers of the eyes, tip of the nose and corners of the mouth.
+ * Landmarks follow the head, when it rolls, so the roll and the reference points of glasses and face masks are taken directly
+ * from them, no eyes have to be detected and no points have to be rotated (compare with Placement and HeadRoll).
+ * Landmarks can be kept relative to the face's rectangle (toRelative()), so they can be moved with a predicted face (fromRelative()).
+ */
+public final class FaceLandmarks {
+    public static final double CHIN_SHIFT = 1.15; //distance between the mouth and the MASK's reference point relative to the distance between the eyes and the mouth
+
+    public final Anchor rightEye; // right eye of the person, left eye in the image (if it isn't mirrored)
+    public final Anchor leftEye;
+    public final Anchor noseTip;
+    public final Anchor rightMouthCorner;
+    public final Anchor leftMouthCorner;
+
+    public FaceLandmarks(Anchor rightEye, Anchor leftEye, Anchor noseTip, Anchor rightMouthCorner, Anchor leftMouthCorner) {
+        this.rightEye = rightEye;
+        this.leftEye = leftEye;
+        this.noseTip = noseTip;
+        this.rightMouthCorner = rightMouthCorner;
+        this.leftMouthCorner = leftMouthCorner;
+    }
+
+    /*** @return clockwise angle of the line between the eyes in degrees in image coordinates, same convention as HeadRoll.estimate() */
+    public double roll() {
+        Anchor left = rightEye.x <= leftEye.x ? rightEye : leftEye; // from viewer's perspective
+        Anchor right = left == rightEye ? leftEye : rightEye;
+        return Math.toDegrees(Math.atan2(right.y - left.y, right.x - left.x));
+    }
+
+    /*** @return reference point for glasses, center of the line between the eyes */
+    public Anchor noseBridge() {
+        return Placement.referenceCenter(rightEye, leftEye);
+    }
+
+    /***
+     * Chin is estimated on the line from the center of the eyes through the center of the mouth, so it follows the roll of the head.
+     * @return reference point for face masks, under the chin
+     */
+    public Anchor chin() {
+        Anchor eyes = noseBridge();
+        Anchor mouth = Placement.referenceCenter(rightMouthCorner, leftMouthCorner);
+        return new Anchor(mouth.x + (mouth.x - eyes.x)*CHIN_SHIFT, mouth.y + (mouth.y - eyes.y)*CHIN_SHIFT);
+    }
+
+    /*** @return landmarks relative to the face's rectangle, (0, 0) is the top left corner and (1, 1) the bottom right corner of the face */
+    public FaceLandmarks toRelative(IntRect face) {
+        return new FaceLandmarks(toRelative(rightEye, face), toRelative(leftEye, face), toRelative(noseTip, face),
+                toRelative(rightMouthCorner, face), toRelative(leftMouthCorner, face));
+    }
+
+    /*** @return landmarks relative to a face (see toRelative()) placed into the face's rectangle */
+    public FaceLandmarks fromRelative(IntRect face) {
+        return new FaceLandmarks(fromRelative(rightEye, face), fromRelative(leftEye, face), fromRelative(noseTip, face),
+                fromRelative(rightMouthCorner, face), fromRelative(leftMouthCorner, face));
+    }
+
+    private static Anchor toRelative(Anchor point, IntRect face) {
+        return new Anchor((point.x - face.x)/face.width, (point.y - face.y)/face.height);
+    }
+
+    private static Anchor fromRelative(Anchor point, IntRect face) {
+        return new Anchor(face.x + point.x*face.width, face.y + point.y*face.height);
+    }
+}
@@ -0,0 +1,68 @@
+package cz.upol.inf.dressingroom.core;
+
+import java.util.List;
+
+/***
+ * Estimation of the roll of the head (tilt to a shoulder) from the eyes detected in an upright face. Eyes are searched only in the upper
+ * half of the face with sizes derived from the face's width, which makes the eye detection cheap enough to run in real time. Roll is
+ * the clockwise angle of the line between the eyes in image coordinates (Y axis points down), clothes are rotated by the same angle.
+ */
+public final class HeadRoll {
+    public static final double EYE_REGION_HEIGHT = 0.5; //percentage of the face's HEIGHT, eyes are searched in the upper part of the face
+    public static final double MIN_EYE_SIZE = 0.15; //percentage of the face's WIDTH
+    public static final double MAX_EYE_SIZE = 0.4; //percentage of the face's WIDTH
+    public static final double MIN_EYE_DISTANCE = 0.25; //percentage of the face's WIDTH, closer eyes are probably one eye detected twice
+    public static final double MAX_ROLL = 45; //degrees, larger angles are treated as false detections
+    public static final double STEP = 1; //degrees, roll is quantized, so the flattened outfit isn't rebuilt with every small change
+
+    private HeadRoll() {}
+
+    /*** @return region of the face, where the eyes are searched (the image is expected to clip it) */
+    public static IntRect eyeRegion(IntRect face) {
+        return new IntRect(face.x, face.y, face.width, (int) Math.round(face.height*EYE_REGION_HEIGHT));
+    }
+
+    /*** @return the smallest size of an eye searched by the classifier */
+    public static int minEyeSize(IntRect face) {
+        return (int) Math.round(face.width*MIN_EYE_SIZE);
+    }
+
+    /*** @return the largest size of an eye searched by the classifier */
+    public static int maxEyeSize(IntRect face) {
+        return (int) Math.round(face.width*MAX_EYE_SIZE);
+    }
+
+    /***
+     * Selects the two eyes closest to the eye level (see Placement.EYE_LEVEL) and calculates the roll from the line between them.
+     * @param eyeCenters centers of the detected eyes in the same coordinates as the face
+     * @param face upright face
+     * @return roll in degrees, NaN if two plausible eyes weren't detected
+     */
+    public static double estimate(List<Anchor> eyeCenters, IntRect face) {
+        double eyeLevel = face.y + face.height*Placement.EYE_LEVEL;
+        Anchor first = null, second = null;
+        for (Anchor eye : eyeCenters) {
+            double distance = Math.abs(eye.y - eyeLevel);
+            if(first == null || distance < Math.abs(first.y - eyeLevel)) {
+                second = first;
+                first = eye;
+            } else if(second == null || distance < Math.abs(second.y - eyeLevel)) {
+                second = eye;
+            }
+        }
+        if(second == null) return Double.NaN;
+
+        Anchor left = first.x < second.x ? first : second; // from viewer's perspective
+        Anchor right = left == first ? second : first;
+        double dx = right.x - left.x;
+        double dy = right.y - left.y;
+        if(Math.sqrt(dx*dx + dy*dy) < face.width*MIN_EYE_DISTANCE) return Double.NaN;
+        double roll = Math.toDegrees(Math.atan2(dy, dx));
+        return Math.abs(roll) > MAX_ROLL ? Double.NaN : roll;
+    }
+
+    /*** @return roll rounded to STEP */
+    public static double quantize(double roll) {
+        return Math.round(roll/STEP)*STEP;
+    }
+}
@@ -0,0 +1,56 @@
+package cz.upol.inf.dressingroom.core;
+
+/***
+ * Immutable rectangle with integer coordinates, counterpart of OpenCV's Rect, so the geometry can be used without OpenCV.
+ */
+public final class IntRect {
+    public final int x;
+    public final int y;
+    public final int width;
+    public final int height;
+
+    public IntRect(int x, int y, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    /*** @return true if the rectangle has no area */
+    public boolean empty() {
+        return width <= 0 || height <= 0;
+    }
+
+    /***
+     * Crops the rectangle, so it doesn't reach outside an image.
+     * @param imageWidth width of the image
+     * @param imageHeight height of the image
+     * @return part of the rectangle inside the image, empty rectangle if they don't overlap
+     */
+    public IntRect clipTo(int imageWidth, int imageHeight) {
+        int clippedX = Math.max(0, x);
+        int clippedY = Math.max(0, y);
+        int clippedWidth = Math.min(imageWidth, x + width) - clippedX;
+        int clippedHeight = Math.min(imageHeight, y + height) - clippedY;
+        if(clippedWidth <= 0 || clippedHeight <= 0) return new IntRect(0, 0, 0, 0);
+        return new IntRect(clippedX, clippedY, clippedWidth, clippedHeight);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if(this == o) return true;
+        if(!(o instanceof IntRect)) return false;
+        IntRect rect = (IntRect) o;
+        return x == rect.x && y == rect.y && width == rect.width && height == rect.height;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((x*31 + y)*31 + width)*31 + height;
+    }
+
+    @Override
+    public String toString() {
+        return "{" + x + ", " + y + ", " + width + "x" + height + "}";
+    }
+}
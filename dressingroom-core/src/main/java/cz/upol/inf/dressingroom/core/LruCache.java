@@ -0,0 +1,112 @@
+package cz.upol.inf.dressingroom.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/***
+ * Cache with least recently used eviction limited by the total size of the values (e.g. bytes of images). Evicted values are passed
+ * to the eviction listener, so their resources can be released. Methods are synchronized.
+ * @param <K> key
+ * @param <V> value
+ */
+public class LruCache<K, V> {
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true); // access order, eldest entry is the least recently used
+    private final ToLongFunction<V> weigher;
+    private final Consumer<V> evictionListener;
+    private long budget;
+    private long size = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /***
+     * @param budget maximum total size of the cached values
+     * @param weigher size of a value
+     * @param evictionListener receives values removed from the cache
+     */
+    public LruCache(long budget, ToLongFunction<V> weigher, Consumer<V> evictionListener) {
+        if(budget < 0) throw new IllegalArgumentException("budget cannot be negative");
+        this.budget = budget;
+        this.weigher = weigher;
+        this.evictionListener = evictionListener;
+    }
+
+    /***
+     * @param key key
+     * @return cached value or null, value becomes the most recently used
+     */
+    public synchronized V get(K key) {
+        V value = map.get(key);
+        if(value == null) misses++;
+        else hits++;
+        return value;
+    }
+
+    /***
+     * Adds value to the cache, least recently used values are evicted until the cache fits into the budget.
+     * Value larger than the whole budget isn't cached.
+     * @param key key
+     * @param value value
+     * @return true if the value was cached, false if it's too large (caller stays responsible for the value)
+     */
+    public synchronized boolean put(K key, V value) {
+        long weight = weigher.applyAsLong(value);
+        if(weight > budget) return false;
+        V previous = map.put(key, value);
+        if(previous != null) {
+            size -= weigher.applyAsLong(previous);
+            if(previous != value) evictionListener.accept(previous);
+        }
+        size += weight;
+        trim(budget);
+        return true;
+    }
+
+    /***
+     * Changes the budget, values are evicted if they don't fit into the new budget.
+     * @param budget maximum total size of the cached values, 0 disables caching
+     */
+    public synchronized void setBudget(long budget) {
+        if(budget < 0) throw new IllegalArgumentException("budget cannot be negative");
+        this.budget = budget;
+        trim(budget);
+    }
+
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /*** Evicts all values. */
+    public synchronized void clear() {
+        trim(-1);
+    }
+
+    /*** @return total size of the cached values */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getCount() {
+        return map.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    private void trim(long maxSize) {
+        Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            V value = iterator.next().getValue();
+            iterator.remove();
+            size -= weigher.applyAsLong(value);
+            evictionListener.accept(value);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package cz.upol.inf.dressingroom.core;
+
+/***
+ * Levels of a mip pyramid of a clothing image. Level 0 is the full resolution image and every following level halves the previous one,
+ * so resizing by a scale starts from the nearest larger level and the final resize is at most by factor of 2. Cost of the final resize
+ * is then proportional to the size of the output instead of the size of the source image and strong downscaling doesn't alias.
+ */
+public final class MipLevels {
+    public static final int MIN_LEVEL_SIZE = 16; // pixels, levels with a smaller side aren't created
+
+    private MipLevels() {}
+
+    /***
+     * @param width width of the full resolution image
+     * @param height height of the full resolution image
+     * @return number of levels including the full resolution image (at least 1)
+     */
+    public static int count(int width, int height) {
+        int levels = 1;
+        while (Math.min(width, height) / 2 >= MIN_LEVEL_SIZE) {
+            width = halve(width);
+            height = halve(height);
+            levels++;
+        }
+        return levels;
+    }
+
+    /*** @return size of the next level (rounded up, so no pixel column or row is lost) */
+    public static int halve(int size) {
+        return (size + 1) / 2;
+    }
+
+    /***
+     * @param scale scale of the full resolution image
+     * @param levelCount number of levels (see count())
+     * @return the smallest level, that isn't smaller than the scaled image
+     */
+    public static int levelFor(double scale, int levelCount) {
+        if(scale >= 1 || scale <= 0) return 0;
+        int level = (int) Math.floor(-Math.log(scale) / Math.log(2));
+        return Math.min(level, levelCount - 1);
+    }
+}
@@ -0,0 +1,144 @@
+package cz.upol.inf.dressingroom.core;
+
+/***
+ * Geometry of placing the clothes on a body. All positions are calculated from the rectangle representing an upright face:
+ * glasses are attached to the nose bridge, face masks to the chin and tops to the neck. Width of glasses and face masks
+ * is derived from the face's width, width of tops from the calibrated waist width (see WaistCalibrator).
+ */
+public final class Placement {
+    public static final double EYE_LEVEL = 0.4; //percentage of the face's HEIGHT, manipulates GLASSES' Y coordinate
+    public static final double MASK_SHIFT = 1.15; //percentage of the face's HEIGHT, manipulates MASK's Y coordinate
+    public static final double FACE_WIDTH_MULTIPLIER = 0.8; //percentage of the face's WIDTH, changes the width of GLASSES and MASK
+
+    public static final double NECK_SHIFT = 1.3; //percentage of the face's HEIGHT, manipulates TOP's Y coordinate
+    public static final double WAIST_SHIFT = 3.2; //percentage of the face's HEIGHT, determines where will the waist be measured
+    public static final double WAIST_WIDTH = 1.05; //changes TOP's width
+    public static final double MAX_WAIST_REF_DIFFERENCE = 0.05; //percentage of the input image's width
+    public static final double WAIST_WIDTH_APPROX = 1.85; //percentage of the face's WIDTH, used when estimating hip width (photo)
+    public static final double HIP_REGION_WIDTH = 1.5; //percentage of the face's WIDTH, width of the regions searched for edges of the waist
+
+    private Placement() {}
+
+    /*** @return reference point for glasses, X = middle of the face rectangle, Y = eye level (rounded to whole pixels) */
+    public static Anchor noseBridge(IntRect face) {
+        return new Anchor(Math.round(face.x + face.width/2d), Math.round(face.y + face.height*EYE_LEVEL));
+    }
+
+    /*** @return reference point for face masks, X = middle of the face rectangle, Y = under the end of the face */
+    public static Anchor chin(IntRect face) {
+        return new Anchor(face.x + face.width/2d, face.y + face.height*MASK_SHIFT);
+    }
+
+    /*** @return reference point for tops, X = middle of the face rectangle, Y = under the chin (rounded to whole pixels) */
+    public static Anchor neck(IntRect face) {
+        return new Anchor(Math.round(face.x + (double) face.width/2), Math.round(face.y + face.height*NECK_SHIFT));
+    }
+
+    /*** @return center of the face rectangle, the head rolls around it */
+    public static Anchor faceCenter(IntRect face) {
+        return new Anchor(face.x + face.width/2d, face.y + face.height/2d);
+    }
+
+    /***
+     * Moves a reference point of an upright face to the face rolled by the given angle, so the face doesn't have to be detected again
+     * in a rotated image.
+     * @param point reference point calculated from the upright face (e.g. noseBridge())
+     * @param center center of the rotation (see faceCenter())
+     * @param rollDegrees clockwise roll of the head in degrees (image coordinates)
+     * @return rotated point
+     */
+    public static Anchor roll(Anchor point, Anchor center, double rollDegrees) {
+        double radians = Math.toRadians(rollDegrees);
+        double cos = Math.cos(radians);
+        double sin = Math.sin(radians);
+        double dx = point.x - center.x;
+        double dy = point.y - center.y;
+        return new Anchor(center.x + cos*dx - sin*dy, center.y + sin*dx + cos*dy);
+    }
+
+    /***
+     * @param face upright face
+     * @param referenceWidth distance between the reference points of glasses or a face mask
+     * @return scale of glasses or a face mask
+     */
+    public static double faceClothingScale(IntRect face, double referenceWidth) {
+        return (face.width*FACE_WIDTH_MULTIPLIER)/referenceWidth;
+    }
+
+    /***
+     * @param waistWidth width of the waist in pixels
+     * @param referenceWidth distance between the reference points of a top
+     * @return scale of a top
+     */
+    public static double topScale(double waistWidth, double referenceWidth) {
+        return waistWidth*WAIST_WIDTH/referenceWidth;
+    }
+
+    /***
+     * Waist width used for standalone images, when the waist couldn't be detected, it is estimated from the face's width.
+     * @param face upright face
+     * @param detectedWaist detected waist width relative to the face's width, 0 if waist wasn't detected
+     * @return waist width in pixels
+     */
+    public static double photoWaistWidth(IntRect face, double detectedWaist) {
+        int waistWidthEstimate = (int) Math.round(face.width * WAIST_WIDTH_APPROX);
+        return detectedWaist==0 ? waistWidthEstimate : detectedWaist*face.width;
+    }
+
+    /*** @return region on the left side of the body at waist level, where the left edge of the waist is searched */
+    public static IntRect leftHipRegion(IntRect face) {
+        return new IntRect((int) Math.round(face.x - face.width*HIP_REGION_WIDTH), hipRegionY(face), (int) Math.round(face.width*HIP_REGION_WIDTH), face.height/2);
+    }
+
+    /*** @return region on the right side of the body at waist level, where the right edge of the waist is searched */
+    public static IntRect rightHipRegion(IntRect face) {
+        return new IntRect(face.x + face.width, hipRegionY(face), (int) Math.round(face.width*HIP_REGION_WIDTH), face.height/2);
+    }
+
+    private static int hipRegionY(IntRect face) {
+        return face.y + (int) Math.round(face.height*(WAIST_SHIFT-0.25)); //0.25 for half the region's height (1/4 of the face's height)
+    }
+
+    /*** @return row in the hip regions, where the search for the waist starts (vertical center of the regions) */
+    public static int waistSearchCenter(IntRect face) {
+        return (int) Math.round(face.height/4.0);
+    }
+
+    /*** @return center of a line created by the two reference points */
+    public static Anchor referenceCenter(Anchor left, Anchor right) {
+        return new Anchor((right.x + left.x)/2, (right.y + left.y)/2);
+    }
+
+    /*** @return the distance between the two reference points, rounded to whole pixels */
+    public static float referenceWidth(Anchor left, Anchor right) {
+        double dx = right.x - left.x;
+        double dy = right.y - left.y;
+        return Math.round(Math.sqrt(dx*dx + dy*dy));
+    }
+
+    /***
+     * Calculates the part of a scaled clothing image, that is drawn into an image. Clothing is placed so that its reference center
+     * lies on the anchor and it is cropped, where it reaches outside the image.
+     * @param anchor point in the image, where the clothing is attached
+     * @param scaledCenter reference center of the scaled clothing
+     * @param clothingWidth width of the scaled clothing
+     * @param clothingHeight height of the scaled clothing
+     * @param imageWidth width of the image
+     * @param imageHeight height of the image
+     * @return region of the image covered by the clothing, empty rectangle if the clothing is outside the image.
+     * Region of the clothing image starts at (region.x - overlayOrigin.x, region.y - overlayOrigin.y).
+     */
+    public static IntRect overlayRegion(Anchor anchor, Anchor scaledCenter, int clothingWidth, int clothingHeight, int imageWidth, int imageHeight) {
+        return new IntRect(overlayOriginX(anchor, scaledCenter), overlayOriginY(anchor, scaledCenter), clothingWidth, clothingHeight).clipTo(imageWidth, imageHeight);
+    }
+
+    /*** @return X coordinate of the top left corner of the clothing placed on the anchor (can be outside the image) */
+    public static int overlayOriginX(Anchor anchor, Anchor scaledCenter) {
+        return (int)(anchor.x - scaledCenter.x);
+    }
+
+    /*** @return Y coordinate of the top left corner of the clothing placed on the anchor (can be outside the image) */
+    public static int overlayOriginY(Anchor anchor, Anchor scaledCenter) {
+        return (int)(anchor.y - scaledCenter.y);
+    }
+}
@@ -0,0 +1,55 @@
+package cz.upol.inf.dressingroom.core;
+
+/***
+ * Smooths the roll of the head between two estimations. Roll is estimated only a few times per second (see HeadRoll), so the angle isn't
+ * changed in steps, instead it approaches the latest estimation exponentially with time constant TIME_CONSTANT. The angle is evaluated at
+ * the time of the frame, so it changes smoothly in every frame even without new estimations.
+ *
+ * Method update() should be called from one thread only, methods get() and reset() can be called from any thread.
+ */
+public final class RollFilter {
+    public static final double TIME_CONSTANT = 0.15; // seconds
+
+    /*** Immutable state, so it can be read from other threads. */
+    private static final class State {
+        final double from; // angle at the time of the latest estimation
+        final double to; // the latest estimation
+        final long timestamp;
+
+        State(double from, double to, long timestamp) {
+            this.from = from;
+            this.to = to;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private volatile State state;
+
+    /***
+     * @param roll estimated roll in degrees
+     * @param timestamp time of the frame, where the roll was estimated (System.nanoTime())
+     */
+    public void update(double roll, long timestamp) {
+        State current = state;
+        state = new State(current == null ? roll : angleAt(current, timestamp), roll, timestamp);
+    }
+
+    /***
+     * @param timestamp time of the frame, where the roll is needed (System.nanoTime())
+     * @return smoothed roll in degrees, 0 if the roll wasn't estimated yet
+     */
+    public double get(long timestamp) {
+        State current = state;
+        return current == null ? 0 : angleAt(current, timestamp);
+    }
+
+    /*** Forgets the roll, e.g. when the face is lost. */
+    public void reset() {
+        state = null;
+    }
+
+    private static double angleAt(State state, long timestamp) {
+        double dt = Math.max(0, (timestamp - state.timestamp) / 1e9);
+        return state.to + (state.from - state.to)*Math.exp(-dt/TIME_CONSTANT);
+    }
+}
@@ -0,0 +1,37 @@
+package cz.upol.inf.dressingroom.core;
+
+/***
+ * Quantization of the scale of the clothes. Scales are rounded to levels, that grow geometrically by STEP, so that resized clothes can be
+ * cached and reused, while the size of the clothes differs from the exact scale by less than STEP/2.
+ */
+public final class SpriteScale {
+    public static final double STEP = 0.01; // 1 % between two levels
+    private static final double LOG_STEP = Math.log1p(STEP);
+
+    private SpriteScale() {}
+
+    /***
+     * @param scale exact scale, must be positive
+     * @return level of the quantized scale
+     */
+    public static int level(double scale) {
+        if(!(scale > 0)) throw new IllegalArgumentException("scale must be positive, was " + scale);
+        return (int) Math.round(Math.log(scale) / LOG_STEP);
+    }
+
+    /***
+     * @param level level of the quantized scale
+     * @return quantized scale
+     */
+    public static double scale(int level) {
+        return Math.exp(level * LOG_STEP);
+    }
+
+    /***
+     * @param scale exact scale, must be positive
+     * @return the closest quantized scale
+     */
+    public static double quantize(double scale) {
+        return scale(level(scale));
+    }
+}
@@ -0,0 +1,62 @@
+package cz.upol.inf.dressingroom.core;
+
+/***
+ * Placement of a scaled clothing rotated by the roll of the head. Clothing is rotated around its reference center, which is placed
+ * on the anchor, so the clothing can be drawn into a tilted face without rotating the whole image. Rotation is clockwise in image
+ * coordinates (Y axis points down), so the clothing's horizontal axis follows the line between the eyes.
+ *
+ * Result is the region of the image covered by the rotated clothing and the affine matrix (2x3, row-major, the same layout as
+ * OpenCV's warpAffine() uses) mapping the clothing's pixels into that region.
+ */
+public final class SpriteWarp {
+    public final IntRect region;
+    private final double[] matrix;
+
+    private SpriteWarp(IntRect region, double[] matrix) {
+        this.region = region;
+        this.matrix = matrix;
+    }
+
+    /***
+     * @param anchor point in the image, where the clothing is attached
+     * @param scaledCenter reference center of the scaled clothing
+     * @param clothingWidth width of the scaled clothing
+     * @param clothingHeight height of the scaled clothing
+     * @param rollDegrees clockwise rotation of the clothing in degrees
+     * @param imageWidth width of the image
+     * @param imageHeight height of the image
+     * @return placement of the rotated clothing or null if the clothing is completely outside the image
+     */
+    public static SpriteWarp place(Anchor anchor, Anchor scaledCenter, int clothingWidth, int clothingHeight, double rollDegrees, int imageWidth, int imageHeight) {
+        double radians = Math.toRadians(rollDegrees);
+        double cos = Math.cos(radians);
+        double sin = Math.sin(radians);
+        // clothing point p is mapped to anchor + R * (p - scaledCenter)
+        double tx = anchor.x - (cos*scaledCenter.x - sin*scaledCenter.y);
+        double ty = anchor.y - (sin*scaledCenter.x + cos*scaledCenter.y);
+
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int corner = 0; corner < 4; corner++) {
+            double px = (corner & 1) == 0 ? 0 : clothingWidth;
+            double py = (corner & 2) == 0 ? 0 : clothingHeight;
+            double x = cos*px - sin*py + tx;
+            double y = sin*px + cos*py + ty;
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+
+        int x = (int) Math.floor(minX);
+        int y = (int) Math.floor(minY);
+        IntRect region = new IntRect(x, y, (int) Math.ceil(maxX) - x, (int) Math.ceil(maxY) - y).clipTo(imageWidth, imageHeight);
+        if(region.empty()) return null;
+
+        return new SpriteWarp(region, new double[]{cos, -sin, tx - region.x, sin, cos, ty - region.y});
+    }
+
+    /*** @return copy of the affine matrix mapping the clothing into the region (coordinates relative to the region's top left corner) */
+    public double[] getMatrix() {
+        return matrix.clone();
+    }
+}
@@ -0,0 +1,110 @@
+package cz.upol.inf.dressingroom.core;
+
+import java.util.Arrays;
+
+/***
+ * Calibrates waist width from waist widths detected in consecutive frames. Detected widths are sorted into buckets, that are increments
+ * of the precision, and the waist is calibrated once any bucket contains enough matches. The calibrated waist is the median of the bucket.
+ *
+ * Buckets are indexed by integers and keep their values in primitive arrays of a fixed size: a ring buffer in the order of arrival and
+ * a sorted window of the same values, so the median is read without sorting and when a bucket is full, its oldest value is replaced.
+ * Memory is bounded by MAX_WAIST / precision buckets of BUCKET_CAPACITY values, an update is a binary search and a short shift.
+ * Class isn't thread-safe, calls have to be synchronized by the caller.
+ */
+public class WaistCalibrator {
+    public static final double MAX_WAIST = 8; // waist width relative to face's width, larger values are ignored
+    public static final int BUCKET_CAPACITY = 64; // the largest number of values kept in one bucket
+
+    /*** Values of one bucket, allocated once and reused after reset. */
+    private static final class Bucket {
+        final double[] ring = new double[BUCKET_CAPACITY]; // values in the order of arrival
+        final double[] sorted = new double[BUCKET_CAPACITY];
+        int head = 0; // index of the oldest value in the ring
+        int count = 0;
+
+        void add(double value) {
+            if(count == BUCKET_CAPACITY) {
+                remove(ring[head]);
+                ring[head] = value;
+                head = (head + 1) % BUCKET_CAPACITY;
+            } else {
+                ring[(head + count) % BUCKET_CAPACITY] = value;
+            }
+            int index = Arrays.binarySearch(sorted, 0, count, value);
+            if(index < 0) index = -index - 1;
+            System.arraycopy(sorted, index, sorted, index + 1, count - index);
+            sorted[index] = value;
+            count++;
+        }
+
+        private void remove(double value) {
+            int index = Arrays.binarySearch(sorted, 0, count, value); // value is always present
+            System.arraycopy(sorted, index + 1, sorted, index, count - index - 1);
+            count--;
+        }
+
+        double median() {
+            return count % 2 == 1 ? sorted[count/2] : (sorted[count/2 - 1] + sorted[count/2]) / 2.0;
+        }
+    }
+
+    private Bucket[] buckets = new Bucket[0];
+    private double precision = Double.NaN; // precision of the current buckets
+    private double waist = 0;
+
+    /***
+     * Every detected waist width is passed to this method. Waist widths are sorted into buckets, that are increments of the precision.
+     * Precision indicates how precise calibration will be, bucket with index k contains waist width values satisfying
+     * the interval: (k - 1)*precision + (3*precision)/2 < waist <= k*precision + (3*precision)/2, bucket 0 contains all smaller values.
+     * When any bucket's size reaches minMatches, calibration is completed and a median of the values in this bucket is the calibrated waist.
+     * Changing the precision forgets the values collected with the previous one.
+     * @param newValue detected waist width / face's width
+     * @param precision width of the buckets
+     * @param minMatches minimum number of matches, that will end the calibration (at most BUCKET_CAPACITY)
+     * @return true if the waist was calibrated, calibrated value is returned by getWaist()
+     */
+    public boolean add(double newValue, double precision, int minMatches) {
+        if(minMatches > BUCKET_CAPACITY) throw new IllegalArgumentException("minMatches cannot be larger than " + BUCKET_CAPACITY);
+        if(precision != this.precision) {
+            this.precision = precision;
+            buckets = new Bucket[bucketIndex(MAX_WAIST, precision) + 1];
+        }
+        if(Double.isNaN(newValue) || newValue > MAX_WAIST) return false;
+
+        int index = bucketIndex(newValue, precision);
+        Bucket bucket = buckets[index];
+        if(bucket == null) {
+            bucket = new Bucket();
+            buckets[index] = bucket;
+        }
+        bucket.add(newValue);
+
+        // if number of values in the bucket reaches minMatches, the waist is set to median of the values in the bucket
+        if(bucket.count >= minMatches) {
+            waist = bucket.median();
+            return true;
+        }
+        return false;
+    }
+
+    /*** @return index of the bucket, where the value belongs */
+    static int bucketIndex(double value, double precision) {
+        double firstEdge = (3*precision)/2;
+        return value <= firstEdge ? 0 : (int) Math.ceil((value - firstEdge) / precision);
+    }
+
+    /*** @return the last calibrated waist width relative to the face's width, 0 if the waist wasn't calibrated */
+    public double getWaist() {
+        return waist;
+    }
+
+    /*** Forgets all detected waist widths and the calibrated waist, allocated buckets are kept. */
+    public void reset() {
+        for (Bucket bucket : buckets) {
+            if(bucket == null) continue;
+            bucket.count = 0;
+            bucket.head = 0;
+        }
+        waist = 0;
+    }
+}
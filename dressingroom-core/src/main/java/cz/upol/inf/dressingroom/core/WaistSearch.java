@@ -0,0 +1,73 @@
+package cz.upol.inf.dressingroom.core;
+
+/***
+ * Search for the waist in the edges of the body found in the two hip regions (see Placement.leftHipRegion() and Placement.rightHipRegion()).
+ * Search begins in the vertical center of the regions, and then goes up and down searching for a match. In every row the edge of the left region,
+ * that is the closest to the center of the body, is paired with such edge of the right region. The edges are considered a match if the difference
+ * between their distances to the center of the body is small enough, matched waist widths are passed to a listener.
+ */
+public final class WaistSearch {
+    /*** Value of a row without any edge. */
+    public static final int NO_EDGE = -1;
+
+    /*** Receives waist widths matched during the search. */
+    public interface MatchListener {
+        /***
+         * @param waistWidth distance between the matched edges in pixels
+         * @return true if the search should stop (e.g. the waist is calibrated)
+         */
+        boolean onMatch(double waistWidth);
+    }
+
+    private WaistSearch() {}
+
+    /***
+     * @param leftEdges for every row of the left hip region the rightmost edge (x in region's coordinates), NO_EDGE if the row has no edge
+     * @param leftRegionX X coordinate of the left hip region in the image
+     * @param rightEdges for every row of the right hip region the leftmost edge (x in region's coordinates), NO_EDGE if the row has no edge
+     * @param rightRegionX X coordinate of the right hip region in the image
+     * @param middle X coordinate of the center of the body in the image
+     * @param maxDifference maximum difference between the distances of the edges to the center of the body in pixels
+     * @param center row where the search starts, rows from 1 to 2*center-1 are searched
+     * @param listener receives matched waist widths
+     * @return true if the listener stopped the search
+     */
+    public static boolean search(int[] leftEdges, int leftRegionX, int[] rightEdges, int rightRegionX, int middle, double maxDifference,
+                                 int center, MatchListener listener) {
+        int rows = rowCount(center);
+        for(int i=0; i<rows; i++) {
+            int y = row(i, center);
+            int left = edgeAt(leftEdges, y);
+            int right = edgeAt(rightEdges, y);
+            if(left == NO_EDGE || right == NO_EDGE) continue;
+
+            int refLeftHip = left + leftRegionX; //getting global coords
+            int refRightHip = right + rightRegionX;
+            int rightDist = refRightHip - middle;
+            int leftDist = middle - refLeftHip;
+
+            // checks if detected points have roughly the same distance from the center of the body
+            if(Math.abs(rightDist - leftDist) <= maxDifference && listener.onMatch(refRightHip - refLeftHip)) return true;
+        }
+        return false;
+    }
+
+    /*** @return number of rows searched around the given center */
+    public static int rowCount(int center) {
+        return Math.max(0, 2*center - 1);
+    }
+
+    /***
+     * Order of the search, loop starts in the center and goes up and down: center, center-1, center+1, center-2, ...
+     * @param i index of the step
+     * @param center row where the search starts
+     * @return row searched in the step i
+     */
+    public static int row(int i, int center) {
+        return (i & 1) == 1 ? center - (i + 1)/2 : center + i/2;
+    }
+
+    private static int edgeAt(int[] edges, int y) {
+        return edges != null && y >= 0 && y < edges.length ? edges[y] : NO_EDGE;
+    }
+}
@@ -0,0 +1,50 @@
+package cz.upol.inf.dressingroom.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AlphaCompositorTest {
+
+    @Test
+    public void div255_isExactlyRounded() {
+        for (int value = 0; value <= 255*255; value++) {
+            assertEquals("value " + value, Math.round(value / 255.0), AlphaCompositor.div255(value));
+        }
+    }
+
+    @Test
+    public void blend_matchesSourceOver() {
+        int width = 7, height = 5, dstStride = 10 * AlphaCompositor.CHANNELS;
+        Random random = new Random(7);
+        ByteBuffer src = ByteBuffer.allocate(width * height * AlphaCompositor.CHANNELS);
+        ByteBuffer dst = ByteBuffer.allocateDirect(dstStride * (height + 1));
+        for (int i = 0; i < src.capacity(); i += AlphaCompositor.CHANNELS) {
+            int alpha = i % 3 == 0 ? 0 : i % 5 == 0 ? 255 : random.nextInt(256);
+            for (int c = 0; c < 3; c++) src.put(i + c, (byte) random.nextInt(alpha + 1)); // premultiplied color
+            src.put(i + 3, (byte) alpha);
+        }
+        for (int i = 0; i < dst.capacity(); i++) dst.put(i, (byte) random.nextInt(256));
+        ByteBuffer original = ByteBuffer.allocate(dst.capacity());
+        for (int i = 0; i < dst.capacity(); i++) original.put(i, dst.get(i));
+
+        AlphaCompositor.blend(src, 0, width * AlphaCompositor.CHANNELS, dst, dstStride + 8, dstStride, width, height);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int s = (y * width + x) * AlphaCompositor.CHANNELS;
+                int d = dstStride + 8 + y * dstStride + x * AlphaCompositor.CHANNELS;
+                int alpha = src.get(s + 3) & 0xFF;
+                for (int c = 0; c < AlphaCompositor.CHANNELS; c++) {
+                    double expected = (src.get(s + c) & 0xFF) + (original.get(d + c) & 0xFF) * (255 - alpha) / 255.0;
+                    assertEquals(expected, dst.get(d + c) & 0xFF, 0.5);
+                }
+            }
+        }
+        assertEquals(original.get(0), dst.get(0)); // outside of the blended area
+        assertEquals(original.get(dstStride + 4), dst.get(dstStride + 4));
+    }
+}
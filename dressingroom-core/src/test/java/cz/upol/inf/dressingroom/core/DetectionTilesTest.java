@@ -0,0 +1,49 @@
+package cz.upol.inf.dressingroom.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DetectionTilesTest {
+
+    @Test
+    public void plan_coversEveryFaceUpToTileMaxFace() {
+        DetectionTiles plan = DetectionTiles.plan(4000, 3000, 280, 3200, 8);
+        assertEquals(1000, plan.tileMaxFace);
+        assertTrue(plan.largeFaces);
+        assertEquals(6, plan.tiles.size());
+
+        // every face of the largest size searched in the tiles is completely inside at least one tile
+        for (int y = 0; y + plan.tileMaxFace <= 3000; y += 50) {
+            for (int x = 0; x + plan.tileMaxFace <= 4000; x += 50) {
+                boolean covered = false;
+                for (IntRect tile : plan.tiles) {
+                    if(x >= tile.x && y >= tile.y && x + plan.tileMaxFace <= tile.x + tile.width && y + plan.tileMaxFace <= tile.y + tile.height) covered = true;
+                }
+                assertTrue("face at " + x + ", " + y, covered);
+            }
+        }
+    }
+
+    @Test
+    public void plan_withOneWorker_usesWholeImage() {
+        DetectionTiles plan = DetectionTiles.plan(4000, 3000, 280, 3200, 1);
+        assertEquals(1, plan.tiles.size());
+        assertEquals(new IntRect(0, 0, 4000, 3000), plan.tiles.get(0));
+        assertFalse(plan.largeFaces);
+    }
+
+    @Test
+    public void suppress_mergesFacesDetectedInOverlappingTiles() {
+        IntRect face = new IntRect(100, 100, 200, 200);
+        IntRect sameFace = new IntRect(104, 98, 196, 204);
+        IntRect partOfFace = new IntRect(100, 150, 120, 120);
+        IntRect otherFace = new IntRect(400, 100, 150, 150);
+
+        List<IntRect> kept = DetectionTiles.suppress(Arrays.asList(partOfFace, sameFace, otherFace, face), DetectionTiles.MAX_OVERLAP);
+        assertEquals(Arrays.asList(face, otherFace), kept);
+    }
+}
@@ -0,0 +1,41 @@
+package cz.upol.inf.dressingroom.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EdgeMapTest {
+
+    @Test
+    public void keepsInnermostEdgePerRow() {
+        EdgeMap left = new EdgeMap(true);
+        left.reset(3);
+        left.addPoints(new int[]{5, 0, 9, 0, 7, 0, 3, 2, 4, 7}, 5); // the last point is outside the rows
+        assertArrayEquals(new int[]{9, WaistSearch.NO_EDGE, 3}, left.getEdges());
+
+        EdgeMap right = new EdgeMap(false);
+        right.reset(1);
+        right.addPoints(new int[]{5, 0, 2, 0, 8, 0}, 3);
+        assertEquals(2, right.get(0));
+
+        right.reset(1);
+        assertEquals(WaistSearch.NO_EDGE, right.get(0));
+    }
+
+    @Test
+    public void scansMaskFromTheTorso() {
+        byte[] mask = {
+                1, 0, 1, 0,
+                0, 0, 0, 0,
+                0, 1, 0, 1};
+        EdgeMap left = new EdgeMap(true);
+        left.reset(3);
+        left.scanMask(mask, 4, 3);
+        assertArrayEquals(new int[]{2, WaistSearch.NO_EDGE, 3}, left.getEdges());
+
+        EdgeMap right = new EdgeMap(false);
+        right.reset(3);
+        right.scanMask(mask, 4, 3);
+        assertArrayEquals(new int[]{0, WaistSearch.NO_EDGE, 1}, right.getEdges());
+    }
+}
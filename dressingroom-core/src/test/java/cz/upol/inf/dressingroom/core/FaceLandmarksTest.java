@@ -0,0 +1,44 @@
+package cz.upol.inf.dressingroom.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FaceLandmarksTest {
+    private static final double DELTA = 1e-9;
+
+    // upright face, eyes at y = 140, mouth at y = 175
+    private static final FaceLandmarks UPRIGHT = new FaceLandmarks(new Anchor(130, 140), new Anchor(170, 140), new Anchor(150, 160),
+            new Anchor(135, 175), new Anchor(165, 175));
+
+    @Test
+    public void referencePoints_ofUprightFace() {
+        assertEquals(0, UPRIGHT.roll(), DELTA);
+        assertEquals(new Anchor(150, 140), UPRIGHT.noseBridge());
+        Anchor chin = UPRIGHT.chin();
+        assertEquals(150, chin.x, DELTA);
+        assertEquals(175 + 35*FaceLandmarks.CHIN_SHIFT, chin.y, DELTA);
+    }
+
+    @Test
+    public void referencePoints_followRolledFace() {
+        Anchor center = new Anchor(150, 150);
+        FaceLandmarks rolled = new FaceLandmarks(Placement.roll(UPRIGHT.rightEye, center, 30), Placement.roll(UPRIGHT.leftEye, center, 30),
+                Placement.roll(UPRIGHT.noseTip, center, 30), Placement.roll(UPRIGHT.rightMouthCorner, center, 30),
+                Placement.roll(UPRIGHT.leftMouthCorner, center, 30));
+
+        assertEquals(30, rolled.roll(), 1e-6);
+        Anchor chin = Placement.roll(UPRIGHT.chin(), center, 30);
+        assertEquals(chin.x, rolled.chin().x, 1e-6);
+        assertEquals(chin.y, rolled.chin().y, 1e-6);
+    }
+
+    @Test
+    public void relativeLandmarks_moveWithFace() {
+        FaceLandmarks relative = UPRIGHT.toRelative(new IntRect(100, 100, 100, 100));
+        assertEquals(new Anchor(0.5, 0.4), relative.noseBridge());
+
+        FaceLandmarks moved = relative.fromRelative(new IntRect(200, 50, 50, 50));
+        assertEquals(new Anchor(225, 70), moved.noseBridge());
+    }
+}
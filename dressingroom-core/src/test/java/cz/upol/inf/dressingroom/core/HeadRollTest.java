@@ -0,0 +1,44 @@
+package cz.upol.inf.dressingroom.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class HeadRollTest {
+    private static final double DELTA = 1e-9;
+    private static final IntRect FACE = new IntRect(100, 100, 100, 100); // eye level at y = 140
+
+    @Test
+    public void estimate_usesEyesClosestToEyeLevel() {
+        double roll = HeadRoll.estimate(Arrays.asList(new Anchor(150, 150), new Anchor(150, 190), new Anchor(130, 130)), FACE);
+        assertEquals(45, roll, DELTA);
+    }
+
+    @Test
+    public void estimate_withoutPlausiblePair_returnsNaN() {
+        assertTrue(Double.isNaN(HeadRoll.estimate(Collections.singletonList(new Anchor(130, 140)), FACE)));
+        assertTrue(Double.isNaN(HeadRoll.estimate(Arrays.asList(new Anchor(130, 140), new Anchor(135, 141)), FACE)));
+        assertTrue(Double.isNaN(HeadRoll.estimate(Arrays.asList(new Anchor(130, 110), new Anchor(150, 170)), FACE)));
+    }
+
+    @Test
+    public void filter_approachesEstimationBetweenUpdates() {
+        RollFilter filter = new RollFilter();
+        assertEquals(0, filter.get(0), DELTA);
+        filter.update(10, 0);
+        assertEquals(10, filter.get(0), DELTA);
+
+        long second = 1_000_000_000L;
+        filter.update(20, second);
+        assertEquals(10, filter.get(second), DELTA);
+        double halfway = filter.get(second + (long) (RollFilter.TIME_CONSTANT*1e9));
+        assertEquals(20 - 10/Math.E, halfway, 1e-6);
+        assertEquals(20, filter.get(second + 10*second), 1e-6);
+
+        filter.reset();
+        assertEquals(0, filter.get(second), DELTA);
+    }
+}
@@ -0,0 +1,15 @@
+package cz.upol.inf.dressingroom.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IntRectTest {
+
+    @Test
+    public void clipTo_cropsToImage() {
+        assertEquals(new IntRect(0, 10, 30, 20), new IntRect(-20, 10, 50, 20).clipTo(100, 100));
+        assertEquals(new IntRect(90, 95, 10, 5), new IntRect(90, 95, 50, 20).clipTo(100, 100));
+        assertTrue(new IntRect(-60, 10, 50, 20).clipTo(100, 100).empty());
+    }
+}
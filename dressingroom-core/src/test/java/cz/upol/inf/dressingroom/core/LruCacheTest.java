@@ -0,0 +1,41 @@
+package cz.upol.inf.dressingroom.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LruCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsedOverBudget() {
+        List<String> evicted = new ArrayList<>();
+        LruCache<Integer, String> cache = new LruCache<>(10, value -> value.length(), evicted::add);
+        cache.put(1, "aaaa");
+        cache.put(2, "bbbb");
+        assertEquals("aaaa", cache.get(1)); // 2 becomes the least recently used
+        cache.put(3, "cccc");
+
+        assertNull(cache.get(2));
+        assertEquals("aaaa", cache.get(1));
+        assertEquals(8, cache.getSize());
+        assertEquals(1, evicted.size());
+        assertEquals("bbbb", evicted.get(0));
+    }
+
+    @Test
+    public void valueOverBudget_isNotCached() {
+        List<String> evicted = new ArrayList<>();
+        LruCache<Integer, String> cache = new LruCache<>(3, value -> value.length(), evicted::add);
+        assertFalse(cache.put(1, "aaaa"));
+        assertNull(cache.get(1));
+        assertTrue(evicted.isEmpty());
+
+        cache.put(2, "bb");
+        cache.setBudget(0);
+        assertEquals(0, cache.getCount());
+        assertEquals(1, evicted.size());
+    }
+}
@@ -0,0 +1,24 @@
+package cz.upol.inf.dressingroom.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MipLevelsTest {
+
+    @Test
+    public void count_stopsAtMinimumSize() {
+        assertEquals(1, MipLevels.count(20, 400));
+        assertEquals(2, MipLevels.count(32, 400)); // 32 -> 16
+        assertEquals(6, MipLevels.count(1000, 600)); // 600 -> 300 -> 150 -> 75 -> 38 -> 19
+    }
+
+    @Test
+    public void levelFor_selectsNearestLargerLevel() {
+        assertEquals(0, MipLevels.levelFor(1.5, 6));
+        assertEquals(0, MipLevels.levelFor(0.6, 6));
+        assertEquals(1, MipLevels.levelFor(0.5, 6));
+        assertEquals(2, MipLevels.levelFor(0.2, 6));
+        assertEquals(5, MipLevels.levelFor(0.001, 6));
+    }
+}
@@ -0,0 +1,17 @@
+package cz.upol.inf.dressingroom.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SpriteScaleTest {
+
+    @Test
+    public void quantizedScale_isStableAndClose() {
+        for (double scale = 0.05; scale < 4; scale *= 1.037) {
+            double quantized = SpriteScale.quantize(scale);
+            assertEquals(scale, quantized, scale * SpriteScale.STEP / 2 + 1e-12);
+            assertEquals(SpriteScale.level(scale), SpriteScale.level(quantized));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package cz.upol.inf.dressingroom.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SpriteWarpTest {
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void place_withoutRoll_isTranslation() {
+        SpriteWarp warp = SpriteWarp.place(new Anchor(100, 50), new Anchor(20, 10), 40, 20, 0, 640, 480);
+        assertEquals(new IntRect(80, 40, 40, 20), warp.region);
+        assertArrayEquals(new double[]{1, 0, 0, 0, 1, 0}, warp.getMatrix(), DELTA);
+    }
+
+    @Test
+    public void place_rotatesAroundReferenceCenter() {
+        Anchor anchor = new Anchor(100, 100);
+        Anchor center = new Anchor(20, 10);
+        SpriteWarp warp = SpriteWarp.place(anchor, center, 40, 20, 90, 640, 480);
+        // clockwise by 90 degrees: 40x20 clothing covers 20x40 pixels
+        assertEquals(new IntRect(90, 80, 20, 40), warp.region);
+
+        double[] m = warp.getMatrix();
+        // reference center lands on the anchor
+        assertEquals(anchor.x - warp.region.x, m[0]*center.x + m[1]*center.y + m[2], DELTA);
+        assertEquals(anchor.y - warp.region.y, m[3]*center.x + m[4]*center.y + m[5], DELTA);
+        // the right end of the clothing points down
+        assertEquals(anchor.y - warp.region.y + 20, m[3]*40 + m[4]*10 + m[5], DELTA);
+    }
+
+    @Test
+    public void place_outsideImage_returnsNull() {
+        assertNull(SpriteWarp.place(new Anchor(-100, -100), new Anchor(20, 10), 40, 20, 30, 640, 480));
+    }
+
+    @Test
+    public void roll_movesPointWithTheHead() {
+        IntRect face = new IntRect(100, 100, 100, 100);
+        Anchor chin = Placement.roll(new Anchor(150, 200), Placement.faceCenter(face), 90);
+        assertEquals(100, chin.x, DELTA);
+        assertEquals(150, chin.y, DELTA);
+    }
+}
@@ -0,0 +1,36 @@
+package cz.upol.inf.dressingroom.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WaistCalibratorTest {
+
+    @Test
+    public void returnsMedianOfMatchingValues() {
+        WaistCalibrator calibrator = new WaistCalibrator();
+        assertFalse(calibrator.add(1.93, 0.06, 3));
+        assertFalse(calibrator.add(3.00, 0.06, 3));
+        assertFalse(calibrator.add(1.80, 0.06, 3)); // different interval
+        assertFalse(calibrator.add(1.91, 0.06, 3));
+        assertTrue(calibrator.add(1.92, 0.06, 3));
+        assertEquals(1.92, calibrator.getWaist(), 1e-9);
+
+        calibrator.reset();
+        assertEquals(0, calibrator.getWaist(), 0);
+    }
+
+    @Test
+    public void keepsBoundedWindowPerBucket() {
+        WaistCalibrator calibrator = new WaistCalibrator();
+        int minMatches = WaistCalibrator.BUCKET_CAPACITY;
+        for (int i = 0; i < WaistCalibrator.BUCKET_CAPACITY - 1; i++) assertFalse(calibrator.add(1.90, 0.06, minMatches));
+        assertTrue(calibrator.add(1.93, 0.06, minMatches));
+        assertEquals(1.90, calibrator.getWaist(), 1e-9);
+
+        // the oldest values are replaced, so the median follows the newest values
+        for (int i = 0; i < WaistCalibrator.BUCKET_CAPACITY / 2; i++) assertTrue(calibrator.add(1.93, 0.06, minMatches));
+        assertEquals(1.93, calibrator.getWaist(), 1e-9);
+        assertFalse(calibrator.add(WaistCalibrator.MAX_WAIST + 1, 0.06, 1));
+    }
+}
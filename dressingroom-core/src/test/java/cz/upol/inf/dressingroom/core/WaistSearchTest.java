@@ -0,0 +1,43 @@
+package cz.upol.inf.dressingroom.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WaistSearchTest {
+
+    @Test
+    public void rows_startInCenterAndAlternate() {
+        int center = 4;
+        int[] rows = new int[WaistSearch.rowCount(center)];
+        for (int i = 0; i < rows.length; i++) rows[i] = WaistSearch.row(i, center);
+        assertArrayEquals(new int[]{4, 3, 5, 2, 6, 1, 7}, rows);
+    }
+
+    @Test
+    public void search_matchesSymmetricEdges() {
+        int[] left = new int[10];
+        int[] right = new int[10];
+        Arrays.fill(left, WaistSearch.NO_EDGE);
+        Arrays.fill(right, WaistSearch.NO_EDGE);
+        left[5] = 10; // global x 110, 90 pixels from the middle
+        right[5] = 40; // global x 340, 140 pixels from the middle
+        left[4] = 30; // global x 130, 70 pixels from the middle
+        right[4] = 0; // global x 300, 100 pixels from the middle
+        left[6] = 20; // global x 120, 80 pixels from the middle
+        right[6] = 0; // global x 300, 100 pixels from the middle
+
+        List<Double> widths = new ArrayList<>();
+        boolean stopped = WaistSearch.search(left, 100, right, 300, 200, 30, 5, waistWidth -> {
+            widths.add(waistWidth);
+            return false;
+        });
+
+        assertFalse(stopped);
+        assertEquals(Arrays.asList(170.0, 180.0), widths); // row 4 is searched before row 6, row 5 isn't symmetric
+    }
+}
@@ -0,0 +1,95 @@
+package cz.upol.inf.dressingroom;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.Core;
+import org.opencv.core.Rect;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Filter is built on OpenCV's KalmanFilter, so it's tested on a device with OpenCV's native library.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FaceKalmanFilterTest {
+    private static final long DETECTION_INTERVAL = 1_000_000_000L / 15; // nanoseconds, faces are detected 15 times per second
+    private static final int JITTER = 3; // pixels, detections of a still face differ by up to this value in every coordinate
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    @Test
+    public void stillFace_withJitteryDetections_staysSteady() {
+        FaceKalmanFilter filter = new FaceKalmanFilter();
+        Random random = new Random(42);
+        Rect face = new Rect(300, 200, 180, 180);
+
+        Rect shown = null;
+        int changes = 0;
+        long timestamp = 0;
+        for (int i = 0; i < 75; i++) {
+            timestamp += DETECTION_INTERVAL;
+            filter.update(jitter(face, random), timestamp);
+            if(i < 30) continue; // filter converges in the first two seconds
+
+            // frames are rendered between detections, detections are one or two frames old
+            for (long ahead = 0; ahead <= 2*DETECTION_INTERVAL; ahead += DETECTION_INTERVAL / 2) {
+                Rect predicted = filter.predict(timestamp + ahead);
+                assertTrue(predicted + " is too far from " + face, distance(predicted, face) <= 2*FaceKalmanFilter.DEADBAND);
+                if(shown != null && !predicted.equals(shown)) changes++;
+                shown = predicted;
+            }
+        }
+        assertTrue("still face changed " + changes + " times", changes <= 1);
+    }
+
+    @Test
+    public void movingFace_isPredictedAhead() {
+        FaceKalmanFilter filter = new FaceKalmanFilter();
+        long timestamp = 0;
+        for (int i = 0; i < 30; i++) {
+            timestamp += DETECTION_INTERVAL;
+            filter.update(new Rect(100 + 20*i, 200, 180, 180), timestamp); // 300 pixels per second to the right
+        }
+        Rect detected = filter.predict(timestamp);
+        Rect predicted = filter.predict(timestamp + 2*DETECTION_INTERVAL);
+        assertTrue(predicted.x - detected.x > FaceKalmanFilter.DEADBAND);
+        assertEquals(100 + 20*31, predicted.x, 15);
+    }
+
+    @Test
+    public void reset_forgetsFaceAndVelocity() {
+        FaceKalmanFilter filter = new FaceKalmanFilter();
+        long timestamp = 0;
+        for (int i = 0; i < 30; i++) {
+            timestamp += DETECTION_INTERVAL;
+            filter.update(new Rect(100 + 20*i, 200, 180, 180), timestamp);
+        }
+        filter.reset();
+        assertTrue(filter.predict(timestamp).empty());
+
+        // the first face of a new session isn't moved by the velocity of the previous one
+        Rect face = new Rect(300, 200, 180, 180);
+        filter.update(face, timestamp + DETECTION_INTERVAL);
+        assertEquals(face, filter.predict(timestamp + 3*DETECTION_INTERVAL));
+    }
+
+    private static Rect jitter(Rect face, Random random) {
+        return new Rect(face.x + offset(random), face.y + offset(random), face.width + offset(random), face.height + offset(random));
+    }
+
+    private static int offset(Random random) {
+        return random.nextInt(2*JITTER + 1) - JITTER;
+    }
+
+    private static int distance(Rect a, Rect b) {
+        return Math.max(Math.max(Math.abs(a.x - b.x), Math.abs(a.y - b.y)), Math.max(Math.abs(a.width - b.width), Math.abs(a.height - b.height)));
+    }
+}
@@ -0,0 +1,84 @@
+package cz.upol.inf.dressingroom;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import static org.junit.Assert.*;
+
+/**
+ * Buffers of the exchange are OpenCV's Mats, so it's tested on a device with OpenCV's native library.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FrameExchangeTest {
+    @BeforeClass
+    public static void loadOpenCV() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    @Test
+    public void publishedFrame_isAcquiredOnce() {
+        FrameExchange exchange = new FrameExchange(1, 1, CvType.CV_8UC1);
+        assertNull(exchange.acquireLatest());
+
+        Mat written = write(exchange, 1);
+        exchange.publish();
+        assertTrue(exchange.hasNewFrame());
+        Mat acquired = exchange.acquireLatest();
+        assertSame(written, acquired);
+        assertEquals(1, value(acquired));
+
+        assertFalse(exchange.hasNewFrame());
+        assertNull(exchange.acquireLatest());
+        exchange.release();
+    }
+
+    @Test
+    public void framesNotPickedUp_areReplacedByTheNewest() {
+        FrameExchange exchange = new FrameExchange(1, 1, CvType.CV_8UC1);
+        Mat first = write(exchange, 1);
+        exchange.publish();
+        write(exchange, 2);
+        exchange.publish();
+        // the first frame wasn't picked up, its buffer is written again
+        assertSame(first, exchange.getWriteBuffer());
+        write(exchange, 3);
+        exchange.publish();
+
+        assertEquals(3, value(exchange.acquireLatest()));
+        assertNull(exchange.acquireLatest());
+        exchange.release();
+    }
+
+    @Test
+    public void buffersSwappedByIndexes_areNeverShared() {
+        FrameExchange exchange = new FrameExchange(1, 1, CvType.CV_8UC1);
+        Mat acquired = null;
+        for (int i = 1; i <= 20; i++) {
+            Mat written = write(exchange, i);
+            assertNotSame(acquired, written);
+            exchange.publish();
+            if(i % 3 != 0) { // consumer misses every third frame
+                acquired = exchange.acquireLatest();
+                assertSame(written, acquired);
+                assertEquals(i, value(acquired));
+            }
+        }
+        exchange.release();
+    }
+
+    private static Mat write(FrameExchange exchange, int value) {
+        Mat buffer = exchange.getWriteBuffer();
+        buffer.put(0, 0, value);
+        return buffer;
+    }
+
+    private static int value(Mat frame) {
+        return (int) frame.get(0, 0)[0];
+    }
+}
@@ -0,0 +1,79 @@
+package cz.upol.inf.dressingroom;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import cz.upol.inf.dressingroom.core.DetectionTiles;
+import cz.upol.inf.dressingroom.core.FaceLandmarks;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tiles are submats of an OpenCV's Mat, so the detector is tested on a device with OpenCV's native library.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TiledFaceDetectorTest {
+    private static final int WORKERS = 4;
+    private static final int MIN_FACE = 24, MAX_FACE = 800;
+
+    @BeforeClass
+    public static void loadOpenCV() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    /*** Detector, that doesn't detect anything, backends load their models in the factory. */
+    private static class EmptyDetector implements FaceDetector {
+        @Override
+        public List<Rect> detect(Mat image, int minFaceSize, int maxFaceSize) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public FaceLandmarks getLandmarks(int index) {
+            return null;
+        }
+
+        @Override
+        public int getMinFaceSize() {
+            return MIN_FACE;
+        }
+
+        @Override
+        public int getMaxInputWidth() {
+            return 0;
+        }
+
+        @Override
+        public Backend getBackend() {
+            return Backend.HAAR;
+        }
+    }
+
+    @Test
+    public void clones_areCreatedOnlyByTheCallingThread() {
+        List<Thread> factoryThreads = new CopyOnWriteArrayList<>();
+        TiledFaceDetector detector = new TiledFaceDetector(() -> {
+            factoryThreads.add(Thread.currentThread());
+            return new EmptyDetector();
+        }, WORKERS);
+
+        Mat image = new Mat(1920, 1080, CvType.CV_8UC1);
+        assertTrue(DetectionTiles.plan(image.cols(), image.rows(), MIN_FACE, MAX_FACE, WORKERS).tiles.size() > WORKERS);
+        for (int i = 0; i < 3; i++) assertTrue(detector.detect(image, MIN_FACE, MAX_FACE).isEmpty());
+        image.release();
+
+        assertEquals("detector and one clone for every worker", WORKERS + 1, factoryThreads.size());
+        for (Thread thread : factoryThreads) assertSame(Thread.currentThread(), thread);
+    }
+}
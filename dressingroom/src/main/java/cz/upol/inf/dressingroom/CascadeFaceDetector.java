@@ -0,0 +1,167 @@
+package cz.upol.inf.dressingroom;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import cz.upol.inf.dressingroom.core.FaceLandmarks;
+
+/***
+ * Face detector running cascade classifiers (Haar or LBP) through HaarCascade. When more classifiers are given, they are applied
+ * in the given order until one of them detects a face (e.g. the second classifier is used only if the first one fails).
+ * The image is converted to grayscale and equalized only once for all classifiers.
+ *
+ * In concurrent mode (setConcurrent()) all classifiers are applied at the same time, each on its own thread with its own HaarCascade,
+ * to one shared grayscale image. The first classifier, that detects a face, wins and the others are cancelled, so the latency of an image
+ * without a face is the latency of the slowest classifier instead of the sum of all of them. A classifier, that already runs, can't be stopped
+ * (detectMultiScale() isn't interruptible), its result is ignored and the next detection with the same classifier waits for it.
+ */
+class CascadeFaceDetector implements FaceDetector {
+    static final int HAAR_MIN_FACE_SIZE = 24; // pixels, the window of Haar cascades is 20x20
+    static final int LBP_MIN_FACE_SIZE = 28; // pixels, the window of the LBP cascade is 24x24
+    private static final long THREAD_KEEP_ALIVE = 30; // seconds, threads of the concurrent mode are stopped when they aren't used
+
+    private final Backend backend;
+    private final int minFaceSize;
+    private final CascadeClassifier[] classifiers;
+    private final HaarCascade[] haarCascades; // one per classifier, so concurrent classifiers don't share scratch state
+    private final ExecutorService[] executors; // one thread per classifier, a classifier never runs on two threads at once
+    private final Future<?>[] lastTasks; // the last concurrent run of every classifier, it can still be running
+    private final Mat imageGray = new Mat(); // initialization of Mat variables in methods is causing memory leaks
+    private volatile boolean concurrent = false;
+
+    /***
+     * @param backend HAAR or LBP
+     * @param minFaceSize the smallest face, that is detected reliably by the classifiers
+     * @param classifiers loaded classifiers, applied in the given order until a face is detected
+     */
+    CascadeFaceDetector(Backend backend, int minFaceSize, CascadeClassifier... classifiers) {
+        if(classifiers.length == 0) throw new IllegalArgumentException("at least one classifier is required");
+        this.backend = backend;
+        this.minFaceSize = minFaceSize;
+        this.classifiers = classifiers;
+        this.haarCascades = new HaarCascade[classifiers.length];
+        this.executors = new ExecutorService[classifiers.length];
+        this.lastTasks = new Future<?>[classifiers.length];
+        for (int i = 0; i < classifiers.length; i++) {
+            haarCascades[i] = new HaarCascade();
+            String name = "CascadeFaceDetector-" + i;
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+            executors[i] = executor;
+        }
+    }
+
+    /***
+     * Turns on concurrent mode, all classifiers are applied at the same time and the first detected face is used. Results can differ
+     * from the sequential mode, if more classifiers detect a face (the faster one wins instead of the first one).
+     * @param concurrent true to apply classifiers concurrently, false to apply them one after another
+     */
+    void setConcurrent(boolean concurrent) {
+        this.concurrent = concurrent;
+    }
+
+    @Override
+    public List<Rect> detect(Mat image, int minFaceSize, int maxFaceSize) {
+        if(concurrent && classifiers.length > 1) return detectConcurrently(image, minFaceSize, maxFaceSize);
+
+        HaarCascade.prepareImage(image, imageGray);
+        List<Rect> results = Collections.emptyList();
+        for (int i = 0; i < classifiers.length && results.isEmpty(); i++) {
+            awaitLastTask(i); // classifier can still run in the background after a concurrent detection
+            results = haarCascades[i].applyClassifierToPrepared(imageGray, classifiers[i], minFaceSize, maxFaceSize);
+        }
+        imageGray.release();
+        return results;
+    }
+
+    private List<Rect> detectConcurrently(Mat image, int minFaceSize, int maxFaceSize) {
+        // shared image is released by the last classifier, that finishes, classifiers ignored by this detection can still be reading it
+        Mat sharedGray = new Mat();
+        HaarCascade.prepareImage(image, sharedGray);
+        AtomicInteger running = new AtomicInteger(classifiers.length);
+        BlockingQueue<List<Rect>> finished = new LinkedBlockingQueue<>();
+
+        List<Future<List<Rect>>> futures = new ArrayList<>(classifiers.length);
+        for (int i = 0; i < classifiers.length; i++) {
+            int index = i;
+            Future<List<Rect>> future = executors[i].submit(() -> {
+                List<Rect> results = Collections.emptyList();
+                try {
+                    results = haarCascades[index].applyClassifierToPrepared(sharedGray, classifiers[index], minFaceSize, maxFaceSize);
+                } finally {
+                    if(running.decrementAndGet() == 0) sharedGray.release();
+                    finished.add(results);
+                }
+                return results;
+            });
+            futures.add(future);
+            lastTasks[i] = future;
+        }
+
+        List<Rect> results = Collections.emptyList();
+        try {
+            for (int i = 0; i < classifiers.length && results.isEmpty(); i++) results = finished.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<List<Rect>> future : futures) {
+                // classifiers, that haven't started, are skipped, running classifiers finish in the background
+                if(future.cancel(false)) {
+                    if(running.decrementAndGet() == 0) sharedGray.release();
+                }
+            }
+        }
+        return results;
+    }
+
+    private void awaitLastTask(int index) {
+        Future<?> task = lastTasks[index];
+        if(task == null) return;
+        try {
+            task.get();
+        } catch (CancellationException | ExecutionException e) {
+            // result of the cancelled classifier isn't needed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lastTasks[index] = null;
+    }
+
+    @Override
+    public FaceLandmarks getLandmarks(int index) {
+        return null; // cascades detect only rectangles
+    }
+
+    @Override
+    public int getMinFaceSize() {
+        return minFaceSize;
+    }
+
+    @Override
+    public int getMaxInputWidth() {
+        return 0; // cascades scan the image with windows of all sizes between minFaceSize and maxFaceSize, cost is given by these sizes
+    }
+
+    @Override
+    public Backend getBackend() {
+        return backend;
+    }
+}
@@ -0,0 +1,73 @@
+package cz.upol.inf.dressingroom;
+
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import cz.upol.inf.dressingroom.core.Anchor;
+import cz.upol.inf.dressingroom.core.IntRect;
+import cz.upol.inf.dressingroom.core.Placement;
+import cz.upol.inf.dressingroom.core.SpriteScale;
+import cz.upol.inf.dressingroom.core.SpriteWarp;
+
+/***
+ * Position of a resized clothing in an image: part of the resized sprite, that is drawn, and the part of the image it covers.
+ * Clothing rotated by the roll of the head is warped into the covered part of the image instead (see SpriteWarp).
+ * Placement is calculated from the sizes only, so it's known before the clothing is resized.
+ */
+class ClothingPlacement {
+    final PreparedSprite sprite;
+    final double scale; // quantized scale (see SpriteScale)
+    final Rect spriteRoi; // null if the clothing is warped
+    final Rect imageRoi;
+    final SpriteWarp warp; // null if the clothing isn't rotated
+
+    private ClothingPlacement(PreparedSprite sprite, double scale, Rect spriteRoi, Rect imageRoi, SpriteWarp warp) {
+        this.sprite = sprite;
+        this.scale = scale;
+        this.spriteRoi = spriteRoi;
+        this.imageRoi = imageRoi;
+        this.warp = warp;
+    }
+
+    /***
+     * Scale is quantized, so resized clothes can be reused while the face's size doesn't change. Clothing is placed so that the center
+     * of its reference points lies on uprightCenter, if the clothing ranges outside the image, it's cropped.
+     * @param clothes clothing
+     * @param scale exact scale of the clothing
+     * @param uprightCenter reference point on the body in upright coordinates
+     * @param roll clockwise rotation of the clothing around its reference center in degrees, 0 for upright clothing
+     * @param orientation orientation of the image, rotated clothes are used and the reference point is mapped to sensor coordinates
+     * @param imageSize size of the image in sensor orientation
+     * @return placement or null if the clothing is completely outside the image
+     */
+    static ClothingPlacement place(DressingRoomClothes clothes, double scale, Point uprightCenter, double roll, SensorOrientation orientation, Size imageSize) {
+        PreparedSprite sprite = clothes.getSprite(orientation);
+        Point referenceCenter = clothes.getReferenceCenter(orientation);
+        Point orgCenter = orientation.toSensor(uprightCenter, imageSize);
+
+        double quantizedScale = SpriteScale.quantize(scale);
+        Size spriteSize = SpriteCache.scaledSize(sprite, quantizedScale);
+
+        // new center coordinates
+        Anchor anchor = new Anchor(orgCenter.x, orgCenter.y);
+        Anchor center = new Anchor(referenceCenter.x * quantizedScale, referenceCenter.y * quantizedScale);
+
+        if(roll != 0) {
+            // rotation is the same in sensor coordinates, sensor orientation only rotates by multiples of 90 degrees
+            SpriteWarp warp = SpriteWarp.place(anchor, center, (int) spriteSize.width, (int) spriteSize.height, roll, (int) imageSize.width, (int) imageSize.height);
+            if(warp == null) return null;
+            IntRect region = warp.region;
+            return new ClothingPlacement(sprite, quantizedScale, null, new Rect(region.x, region.y, region.width, region.height), warp);
+        }
+
+        // calculating ROIs for the image and for clothes, blended regions have to be the same size
+        IntRect roi = Placement.overlayRegion(anchor, center, (int) spriteSize.width, (int) spriteSize.height, (int) imageSize.width, (int) imageSize.height);
+        // roi is completely outside the image, drawing isn't necessary
+        if(roi.empty()) return null;
+
+        // creating clothing ROI in case the clothing is outside the image
+        Rect spriteRoi = new Rect(roi.x - Placement.overlayOriginX(anchor, center), roi.y - Placement.overlayOriginY(anchor, center), roi.width, roi.height);
+        return new ClothingPlacement(sprite, quantizedScale, spriteRoi, new Rect(roi.x, roi.y, roi.width, roi.height), null);
+    }
+}
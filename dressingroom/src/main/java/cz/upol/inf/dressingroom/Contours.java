@@ -3,6 +3,7 @@ package cz.upol.inf.dressingroom;
 import android.graphics.Bitmap;
 
 import org.jetbrains.annotations.TestOnly;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint;
 import org.opencv.core.Point;
@@ -13,6 +14,8 @@ import org.opencv.imgproc.Imgproc;
 import java.util.ArrayList;
 import java.util.List;
 
+import cz.upol.inf.dressingroom.core.EdgeMap;
+
 /***
  * Contains methods that are needed by DressingRoom class for detection of contours.
  */
@@ -26,87 +29,90 @@ class Contours {
      * Method converts image to grayscale, applies Gaussian blur for better edge detection. Image is ten eroded and dilated afterward
      * to filter our horizontal or vertical lines, if needed. For detection of all edges use kernel with equal sizes.
      * Canny edge detection is then run on the image and the result is returned.
-     * @param image input image
+     * Intermediate image, the kernel and the result are taken from the pool, so no native memory is allocated once the size is stable.
+     * @param image input image (if the image is already grayscale, conversion is skipped and the image isn't changed)
      * @param kernelSize vertical or horizontal kernel to detect only vertical/horizontal lines
-     * @return Mat with detected edges
+     * @param pool pool of the calling thread
+     * @return Mat with detected edges, it has to be returned to the pool
      */
-    protected static Mat cannyEdgeDetection(Mat image, Size kernelSize) {
+    protected static Mat cannyEdgeDetection(Mat image, Size kernelSize, ScratchPool pool) {
         // converting to grayscale
-        Mat imageGray = new Mat();
-        Imgproc.cvtColor(image, imageGray, Imgproc.COLOR_BGR2GRAY);
-
-        // blur for more effective edge detection
-        Imgproc.blur(imageGray, imageGray, BLUR_KERNEL);
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, kernelSize);
+        Mat imageGray = pool.acquire(image.rows(), image.cols(), CvType.CV_8UC1);
+        if(image.channels() == 1) {
+            // blur for more effective edge detection
+            Imgproc.blur(image, imageGray, BLUR_KERNEL);
+        } else {
+            Imgproc.cvtColor(image, imageGray, Imgproc.COLOR_BGR2GRAY);
+            // blur for more effective edge detection
+            Imgproc.blur(imageGray, imageGray, BLUR_KERNEL);
+        }
+        Mat kernel = pool.kernel(Imgproc.MORPH_RECT, kernelSize);
 
         // eroding and dilating the image with the kernel to get rid of the horizontal/vertical lines
         Imgproc.erode(imageGray, imageGray, kernel);
         Imgproc.dilate(imageGray, imageGray, kernel);
 
         // Canny edge detection
-        Mat cannyOutput = new Mat();
+        Mat cannyOutput = pool.acquire(image.rows(), image.cols(), CvType.CV_8UC1);
         Imgproc.Canny(imageGray, cannyOutput, THRESHOLD1, THRESHOLD2);
 
-        imageGray.release();
+        pool.release(imageGray);
         return cannyOutput;
     }
 
-    /***
-     *  Method creates a vertical kernel and extracts vertical contours from given image.
-     * @param image source image
-     * @return List of points representing contours
-     */
-    protected static List<Point> getVerticalContours(Mat image) {
+    private static int verticalKernelSize(Mat image) {
         /* kernel height needs to be bigger than 0 otherwise the method getStructuringElement() used in cannyEdgeDetection()
             throws an error and the height should be more than one, so the kernel would eliminate horizontal lines. */
         int verticalSize = image.cols() / 30;
         if(verticalSize<2) verticalSize = 2;
-
-        return getContours(image, 1, verticalSize);
+        return verticalSize;
     }
 
     /***
-     *  Method creates a horizontal kernel and extracts horizontal contours from given image.
+     * Method creates a vertical kernel, extracts vertical contours from given image and adds their points to the edge map.
+     * Points are copied from the contours as primitive coordinates, no Point objects are created.
      * @param image source image
-     * @return List of points representing contours
+     * @param edges edge map, its rows have to be reset to the height of the image
      */
-    protected static List<Point> getHorizontalContours(Mat image) {
-        /* kernel width needs to be bigger than 0 otherwise the method getStructuringElement() used in cannyEdgeDetection()
-            throws an error and the width should be more than one, so the kernel would eliminate vertical lines. */
-        int horizontalSize = image.rows() / 30;
-        if(horizontalSize<2) horizontalSize = 2;
-
-        return getContours(image, horizontalSize, 1);
-    }
-
-    /***
-     * Contours are extracted from result of Canny edge detection and are converted to points. ratio of the kernel sizes will determine what contours
-     * are detected: bigger horizontal size means horizontal contours will be detected, bigger vertical size means vertical contours will be detected,
-     * and equal sizes will result in detection of all edges.
-     * @param image source image
-     * @param horizontalSize horizontalSize of the kernel
-     * @param verticalSize verticalSize of the kernel
-     * @return List of points representing contours
-     */
-    private static List<Point> getContours(Mat image, int horizontalSize, int verticalSize) {
-        Mat cannyOutput = cannyEdgeDetection(image, new Size(horizontalSize, verticalSize));
-        Mat hierarchy = new Mat();
+    protected static void getVerticalEdges(Mat image, EdgeMap edges) {
+        ScratchPool pool = ScratchPool.forCurrentThread();
+        Mat cannyOutput = cannyEdgeDetection(image, new Size(1, verticalKernelSize(image)), pool);
+        Mat hierarchy = pool.acquire(0, 0, CvType.CV_32SC4); // reallocated by findContours
 
         List<MatOfPoint> contours = new ArrayList<>();
         Imgproc.findContours(cannyOutput, contours, hierarchy, Imgproc.RETR_TREE, Imgproc.CHAIN_APPROX_NONE);
 
-        // merging contours to one list with Points
-        List<Point> points = new ArrayList<>();
+        int[] points = new int[0];
         for(MatOfPoint contour : contours) {
-            points.addAll(contour.toList());
+            int count = (int) contour.total();
+            if(points.length < 2*count) points = new int[2*count];
+            contour.get(0, 0, points); // x and y of every point
+            edges.addPoints(points, count);
             contour.release();
         }
 
-        hierarchy.release();
-        cannyOutput.release();
-        return points;
+        pool.release(hierarchy);
+        pool.release(cannyOutput);
     }
 
+    /***
+     * Method runs the same edge detection as getVerticalEdges(), but the edge mask is scanned row by row from the side of the torso
+     * (see EdgeMap.scanMask()) instead of extracting contours, so neither contours nor their hierarchy are built.
+     * @param image source image
+     * @param edges edge map, its rows have to be reset to the height of the image
+     * @param pixels buffer for the pixels of the edge mask, it's reused if it's large enough
+     * @return buffer that was used, should be passed to the next call
+     */
+    protected static byte[] scanVerticalEdges(Mat image, EdgeMap edges, byte[] pixels) {
+        ScratchPool pool = ScratchPool.forCurrentThread();
+        Mat cannyOutput = cannyEdgeDetection(image, new Size(1, verticalKernelSize(image)), pool);
+        int size = (int) cannyOutput.total();
+        if(pixels == null || pixels.length < size) pixels = new byte[size];
+        cannyOutput.get(0, 0, pixels);
+        edges.scanMask(pixels, cannyOutput.cols(), cannyOutput.rows());
+        pool.release(cannyOutput);
+        return pixels;
+    }
 
     /***
      * !!!Method is intended to be used only for testing purposes!!!
@@ -128,7 +134,8 @@ class Contours {
      */
     @TestOnly
     protected static void drawContours(Mat image) {
-        Mat cannyOutput = cannyEdgeDetection(image, new Size(1,1));
+        ScratchPool pool = ScratchPool.forCurrentThread();
+        Mat cannyOutput = cannyEdgeDetection(image, new Size(1,1), pool);
         Mat hierarchy = new Mat();
         List<MatOfPoint> contours = new ArrayList<>();
         Imgproc.findContours(cannyOutput, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
@@ -137,7 +144,7 @@ class Contours {
             Imgproc.drawContours(image, contours, i, color, 2, Imgproc.LINE_8, hierarchy, 0, new Point());
         }
         hierarchy.release();
-        cannyOutput.release();
+        pool.release(cannyOutput);
     }
 
     /***
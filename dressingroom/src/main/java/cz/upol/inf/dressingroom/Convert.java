@@ -11,9 +11,22 @@ public class Convert {
      * @return created mat
      */
     public static Mat bitmapToMat(Bitmap bitmap) {
+        return bitmapToMat(bitmap, false);
+    }
+
+    /***
+     * Creates new Mat from given Bitmap.
+     * @param bitmap source image
+     * @param unPremultiplyAlpha true to convert colors from premultiplied alpha (the way Android keeps bitmaps) to straight alpha,
+     *                           should be used for images with transparency (e.g. clothes)
+     * @return created mat
+     */
+    public static Mat bitmapToMat(Bitmap bitmap, boolean unPremultiplyAlpha) {
+        long start = DressingRoomMetrics.start();
         Mat mat = new Mat();
         Bitmap bmp32 = bitmap.copy(Bitmap.Config.ARGB_8888, true);
-        Utils.bitmapToMat(bmp32, mat);
+        Utils.bitmapToMat(bmp32, mat, unPremultiplyAlpha);
+        DressingRoomMetrics.stop(DressingRoomMetrics.Stage.BITMAP_TO_MAT, start);
         return mat;
     }
 
@@ -23,8 +36,10 @@ public class Convert {
      * @return created bitmap
      */
     public static Bitmap matToBitmap(Mat mat) {
+        long start = DressingRoomMetrics.start();
         Bitmap bitmap = Bitmap.createBitmap(mat.cols(), mat.rows(), Bitmap.Config.ARGB_8888);
         Utils.matToBitmap(mat, bitmap);
+        DressingRoomMetrics.stop(DressingRoomMetrics.Stage.MAT_TO_BITMAP, start);
         return bitmap;
     }
 }
@@ -2,9 +2,7 @@ package cz.upol.inf.dressingroom;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.util.Log;
 
-import org.opencv.core.Core;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
@@ -14,13 +12,17 @@ import org.opencv.objdetect.CascadeClassifier;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-import java.util.Optional;
+
+import cz.upol.inf.dressingroom.core.Anchor;
+import cz.upol.inf.dressingroom.core.EdgeMap;
+import cz.upol.inf.dressingroom.core.FaceLandmarks;
+import cz.upol.inf.dressingroom.core.HeadRoll;
+import cz.upol.inf.dressingroom.core.IntRect;
+import cz.upol.inf.dressingroom.core.Placement;
+import cz.upol.inf.dressingroom.core.RollFilter;
+import cz.upol.inf.dressingroom.core.SpriteScale;
+import cz.upol.inf.dressingroom.core.WaistSearch;
 
 /***
  * Dressing room contains variety of methods for mapping clothing on standalone images and on frames from camera in real time. When initializing
@@ -31,9 +33,11 @@ import java.util.Optional;
  * For real time image mapping use methods: addClothesRT(), getFace() and recalculateWaistWidth(). Method addClothesRT requires rectangle representing
  * a face, you can acquire this rectangle with the help of the method getFace(). I recommend not running method getFace() in UI thread as it is computationally
  * expensive and will result in slowing the application down heavily. Instead run method getFace() in a separate thread. Example of the usage of the two methods
- * can be seen in the app example. When the method addClothesRT() is called with Outfit that contains Tops, waistWidth is calculated. This width is saved
+ * can be seen in the app example. When the method addClothesRT() is called with Outfit that contains Tops, waistWidth is calculated in a background
+ * thread. This width is saved
  * and used until the face disappears from the camera's view. If needed the method recalculateWaistWidth() deletes previously calculated waist width,
- * which will be recalculated by method addClothesRT() once needed again.
+ * which will be recalculated by method addClothesRT() once needed again. Class TryOnPipeline runs all of these steps asynchronously,
+ * each of them in its own thread.
  *
  * For more specific information see method descriptions.
  *
@@ -47,37 +51,120 @@ public class DressingRoom {
     private static final double MIN_FACE_SIZE = 0.07; // percentage of image's width, minSize for face detection
     private static final double MAX_FACE_SIZE = 0.8;  // percentage of image's width, maxSize for face detection
 
-    private static CascadeClassifier frontalFaceClassifier; // better results
-    private static CascadeClassifier frontalFaceClassifier2; // slightly faster
+    private static volatile FaceDetector stillFaceDetector; // used for standalone images
+    private static volatile FaceDetector faceDetector; // used for real time detection, instance is used only by the thread calling getFace()
+    private static volatile boolean concurrentStillDetection = false;
+    private static volatile boolean tiledStillDetection = false;
 
     private static CascadeClassifier eyesClassifier2; // second classifier detects eyes with glasses better
 
-    private static final double EYE_LEVEL = 0.4; //percentage of the face's HEIGHT, manipulates GLASSES' Y coordinate
-    private static final double MASK_SHIFT = 1.15; //percentage of the face's HEIGHT, manipulates MASK's Y coordinate
-    private static final double FACE_WIDTH_MULTIPLIER = 0.8; //percentage of the face's WIDTH, changes the width of GLASSES and MASK
-
-    private static final double NECK_SHIFT = 1.3; //percentage of the face's HEIGHT, manipulates TOP's Y coordinate
-    private static final double WAIST_SHIFT = 3.2; //percentage of the face's HEIGHT, determines where will the waist be measured
-    private static final double WAIST_WIDTH = 1.05; //changes TOP's width
-    private static final double MAX_WAIST_REF_DIFFERENCE = 0.05; //percentage of the input image's width
-
-    //photo
-    private static final double WAIST_WIDTH_APPROX = 1.85; //percentage of the face's WIDTH, used when estimating hip width
+    // placement of the clothes (positions of the nose bridge, chin and neck, waist measurement) is calculated by class Placement
 
     //real time
-    private static double previousWaist = 0;
+    private static volatile double previousWaist = 0; // written by the thread calibrating the waist, read by the thread adding clothes
+    private static final Object waistLock = new Object(); // guards publishing and resetting of previousWaist
+    private static volatile long waistResetCount = 0; // incremented by every reset, calibration sessions are reset lazily (see WaistSession)
 
 
     /***
      * Method initializes Haar cascade classifiers and has to be called before calling any other methods, that require detection.
+     * Faces are detected by Haar cascades, until a different backend is selected by method setFaceDetector().
      * @param context application context
      * @throws AssertionError loading of classifiers failed
      */
     public static void loadClassifiers(Context context) {
-        frontalFaceClassifier = HaarCascade.loadClassifier(context, R.raw.haarcascade_frontalface_alt, "haarcascade_frontalface_alt.xml");
-        frontalFaceClassifier2 = HaarCascade.loadClassifier(context, R.raw.haarcascade_frontalface_alt2, "haarcascade_frontalface_alt2.xml");
+        CascadeClassifier frontalFaceClassifier = HaarCascade.loadClassifier(context, R.raw.haarcascade_frontalface_alt, "haarcascade_frontalface_alt.xml"); // better results
+        CascadeClassifier frontalFaceClassifier2 = HaarCascade.loadClassifier(context, R.raw.haarcascade_frontalface_alt2, "haarcascade_frontalface_alt2.xml"); // slightly faster
         eyesClassifier2 = HaarCascade.loadClassifier(context, R.raw.haarcascade_eye_tree_eyeglasses, "haarcascade_eye_tree_eyeglasses.xml");
         if(frontalFaceClassifier == null || frontalFaceClassifier2 == null || eyesClassifier2 == null) throw new AssertionError("One of the Haar Cascade classifiers for face detecting in DressingRoom.java wasn't loaded properly.");
+        // if no face is detected with the first classifier on a standalone image, detection is run again with the second classifier
+        stillFaceDetector = tiledStillDetection ? createStillFaceDetector(context, FaceDetector.Backend.HAAR)
+                : withStillDetectionMode(new CascadeFaceDetector(FaceDetector.Backend.HAAR, CascadeFaceDetector.HAAR_MIN_FACE_SIZE, frontalFaceClassifier, frontalFaceClassifier2));
+        faceDetector = new CascadeFaceDetector(FaceDetector.Backend.HAAR, CascadeFaceDetector.HAAR_MIN_FACE_SIZE, frontalFaceClassifier2);
+    }
+
+    /***
+     * Selects the backend of face detection for standalone images and for real time detection (see FaceDetector.Backend), the backend
+     * is loaded by this method. Method loadClassifiers() has to be called before, the eye classifier is still used for the head's roll.
+     * Method shouldn't be called while method getFace() is running.
+     * @param context application context
+     * @param backend backend of the detection
+     * @throws AssertionError loading of the backend failed
+     */
+    public static void setFaceDetector(Context context, FaceDetector.Backend backend) {
+        FaceDetector still = createStillFaceDetector(context, backend);
+        FaceDetector realTime = backend == FaceDetector.Backend.HAAR
+                ? new CascadeFaceDetector(backend, CascadeFaceDetector.HAAR_MIN_FACE_SIZE, loadCascade(context, R.raw.haarcascade_frontalface_alt2, "haarcascade_frontalface_alt2.xml"))
+                : createFaceDetector(context, backend);
+        stillFaceDetector = still;
+        faceDetector = realTime;
+    }
+
+    /***
+     * Turns on tiled detection for standalone images (see TiledFaceDetector). Large photos are split into overlapping tiles, that are
+     * searched in parallel by one detector per core, so the detection scales with the number of cores. Concurrent detection (setConcurrentStillDetection()) is ignored in tiled mode,
+     * the cores are already used by the tiles. Detectors are loaded again by this method.
+     * @param context application context
+     * @param enabled true to split large photos into tiles, false to search the whole photo on one thread
+     * @throws AssertionError loading of the backend failed
+     */
+    public static void setTiledStillDetection(Context context, boolean enabled) {
+        tiledStillDetection = enabled;
+        FaceDetector detector = stillFaceDetector;
+        if(detector != null) stillFaceDetector = createStillFaceDetector(context, detector.getBackend());
+    }
+
+    private static FaceDetector createStillFaceDetector(Context context, FaceDetector.Backend backend) {
+        if(tiledStillDetection) {
+            Context applicationContext = context.getApplicationContext(); // clones are created with the first large photo, activity can be gone
+            return new TiledFaceDetector(() -> createFaceDetector(applicationContext, backend));
+        }
+        return withStillDetectionMode(createFaceDetector(context, backend));
+    }
+
+    /***
+     * Turns on concurrent detection for standalone images. Haar backend runs its two classifiers on two threads at the same time
+     * over one grayscale image and uses the first classifier, that detects a face, so images without a face or with a face, that only
+     * the second classifier detects, take roughly half the time. Other backends use only one classifier and aren't affected.
+     * @param enabled true to run the classifiers concurrently, false to run the second classifier only if the first one fails
+     */
+    public static void setConcurrentStillDetection(boolean enabled) {
+        concurrentStillDetection = enabled;
+        FaceDetector detector = stillFaceDetector;
+        if(detector != null) withStillDetectionMode(detector);
+    }
+
+    private static FaceDetector withStillDetectionMode(FaceDetector detector) {
+        if(detector instanceof CascadeFaceDetector) ((CascadeFaceDetector) detector).setConcurrent(concurrentStillDetection);
+        return detector;
+    }
+
+    /***
+     * Loads a new face detector, that can be used independently of DressingRoom (e.g. for comparison of the backends).
+     * Haar backend uses two classifiers, the second one is applied only if the first one doesn't detect any face.
+     * @param context application context
+     * @param backend backend of the detection
+     * @return loaded detector, instance should be used only by one thread
+     * @throws AssertionError loading of the backend failed
+     */
+    public static FaceDetector createFaceDetector(Context context, FaceDetector.Backend backend) {
+        switch (backend) {
+            case HAAR:
+                return new CascadeFaceDetector(backend, CascadeFaceDetector.HAAR_MIN_FACE_SIZE,
+                        loadCascade(context, R.raw.haarcascade_frontalface_alt, "haarcascade_frontalface_alt.xml"),
+                        loadCascade(context, R.raw.haarcascade_frontalface_alt2, "haarcascade_frontalface_alt2.xml"));
+            case LBP:
+                return new CascadeFaceDetector(backend, CascadeFaceDetector.LBP_MIN_FACE_SIZE,
+                        loadCascade(context, R.raw.lbpcascade_frontalface, "lbpcascade_frontalface.xml"));
+            default:
+                throw new IllegalArgumentException("unknown backend " + backend);
+        }
+    }
+
+    private static CascadeClassifier loadCascade(Context context, int resourceRaw, String fileName) {
+        CascadeClassifier classifier = HaarCascade.loadClassifier(context, resourceRaw, fileName);
+        if(classifier == null) throw new AssertionError("Cascade classifier " + fileName + " wasn't loaded properly.");
+        return classifier;
     }
 
 
@@ -97,9 +184,10 @@ public class DressingRoom {
      * Method detects a person in sourceImage and adds clothing from Outfit. Note that this method should only be called for standalone images.
      * This method makes sure the clothing is added, even if the waist isn't detected.
      * In cases where waist isn't detected an estimate is used. For more precise adding of faceMasks and Glasses,
-     * a face rotation is calculated and the whole image is rotated by detected angle * -1.
-     * Face detection is then run again with the rotated image as a parameter, that's when faceMasks and Glasses are added
-     * and the image is then rotated back and cropped to it's original size.
+     * a face rotation (roll) is calculated from the eyes. Reference points of the face are rotated around the center of the face
+     * and faceMasks and Glasses are rotated by the same angle, while they are drawn into the image (see SpriteWarp),
+     * so neither the image has to be rotated nor the face detected again. If the face detector detects landmarks (see FaceDetector.getLandmarks()),
+     * the roll and the reference points are taken from the landmarks and eyes aren't detected at all.
      * @param sourceImage bitmap with a person (method throws IOException if no face is detected)
      * @param outfit outfit with all the clothes, that are going to be added
      * @return Mat with added clothes to the original image.
@@ -107,65 +195,41 @@ public class DressingRoom {
     public static Mat detectAndAddClothing(Mat sourceImage, Outfit outfit) throws IOException {
         if(outfit.isEmpty()) return sourceImage;
 
+        // finding face in the image
+        FaceDetector detector = stillFaceDetector;
+        List<Rect> detectionResults = detector.detect(sourceImage, (int)Math.round(sourceImage.cols()*MIN_FACE_SIZE), (int)Math.round(sourceImage.cols()*MAX_FACE_SIZE));
+        if(detectionResults.isEmpty()) throw new IOException("No face detected");
+
         // works with a face, that is closest to the camera (the biggest detected rectangle representing a face)
-        Rect face = detectFace(sourceImage);
-        if(face.empty()) throw new IOException("No face detected");
+        int faceIndex = closestFace(detectionResults);
+        Rect face = detectionResults.get(faceIndex);
+        FaceLandmarks landmarks = detector.getLandmarks(faceIndex);
+        if(landmarks != null) landmarks = landmarks.fromRelative(toIntRect(face));
 
         Mat result = sourceImage.clone();
 
-        // detecting head rotation, rotating image and running face detection again to get face measurements
-        double angle = imageProcessor.getHeadRotationAngle(sourceImage, face, eyesClassifier2, EYE_LEVEL);
-        Mat rotatedImage = new Mat();
-        imageProcessor.rotateImage(sourceImage, rotatedImage, angle*-1);
-        Rect rotatedFace = detectFace(rotatedImage);
-
-        if(rotatedFace.empty()) {
-            // ADDING MASK and GLASSES (won't be rotated)
-            addGlasses(result, outfit, face);
-            addFaceMasks(result, outfit, face);
-            addTops(outfit, face, result);
-            return result;
-        }
-
-        // ADDING MASK and GLASSES (will be rotated based on head rotation)
-        addFaceMasks(rotatedImage, outfit, rotatedFace);
-        addGlasses(rotatedImage, outfit, rotatedFace);
+        // detecting head rotation, angle is the rotation compensation, so the head is rolled by the opposite angle
+        double roll = landmarks != null ? landmarks.roll() : -imageProcessor.getHeadRotationAngle(sourceImage, face, eyesClassifier2, Placement.EYE_LEVEL);
 
-        //rotating image back and cropping it to it's original size
-        Rect roi = new Rect((rotatedImage.width()-sourceImage.width())/2, (rotatedImage.height()-sourceImage.height())/2, sourceImage.width(), sourceImage.height());
-        Mat temp = new Mat();
-        imageProcessor.rotateImageBack(rotatedImage, temp, angle);
-        result = temp.submat(roi);
+        // ADDING MASK and GLASSES (rotated based on head rotation)
+        addFaceMasks(result, outfit, face, roll, landmarks);
+        addGlasses(result, outfit, face, roll, landmarks);
 
-        rotatedImage.release();
-
-        addTops(outfit, face, result); // ADDING TOPS on unrotated image, needs to be added last otherwise it's changing face detection
+        addTops(outfit, face, result); // ADDING TOPS, needs to be added last otherwise it's changing waist detection
 
         return result;
     }
 
-    private static final HaarCascade haarCascade = new HaarCascade();
     /***
-     * Runs basic face detection, no additional calculation are being made like it is in method getFace().
-     * Method uses two different classifiers to ensure a detection. If no faces were detected by the first classifier, second one is used.
-     * This methods should only be used for detection in standalone images.
-     * @param source image
-     * @return face closest to the camera
+     * @param faces detected faces, at least one
+     * @return index of the face closest to the camera (the biggest detected rectangle representing a face)
      */
-    private static Rect detectFace(Mat source) {
-        // finding face in the image
-        List<Rect> haarDetectionResults = haarCascade.applyClassifier(source, frontalFaceClassifier, (int)Math.round(source.cols()*MIN_FACE_SIZE), (int)Math.round(source.cols()*MAX_FACE_SIZE));
-
-        if(haarDetectionResults.isEmpty()) {
-            // if no face is detected with the first classifier, detection is run again with the second classifier
-            haarDetectionResults = haarCascade.applyClassifier(source, frontalFaceClassifier2, (int)Math.round(source.cols()*MIN_FACE_SIZE), (int)Math.round(source.cols()*MAX_FACE_SIZE));
-            if(haarDetectionResults.isEmpty()) {
-                // if the second classifier fails to detect face as well, empty rectangle is returned
-                return new Rect();
-            }
+    private static int closestFace(List<Rect> faces) {
+        int closest = 0;
+        for (int i = 1; i < faces.size(); i++) {
+            if(faces.get(i).area() > faces.get(closest).area()) closest = i;
         }
-        // works with a face, that is closest to the camera (the biggest detected rectangle representing a face)
-        return haarDetectionResults.stream().max(Comparator.comparing(Rect::area)).orElse(haarDetectionResults.get(0));
+        return closest;
     }
 
     /***
@@ -177,45 +241,49 @@ public class DressingRoom {
      * */
     private static void addTops(Outfit outfit, Rect face, Mat result) {
         if (!outfit.getTops().isEmpty()) {
-            Point neckPoint = new Point(Math.round(face.x + (double) face.width/2), Math.round(face.y + face.height*NECK_SHIFT));
-            double waistWidth = calculateWaistWidth(result, face, 0.08, 5);
-            int waistWidthEstimate = (int) Math.round(face.width * WAIST_WIDTH_APPROX);
-            double waist = (waistWidth==0 ? waistWidthEstimate : waistWidth* face.width) * WAIST_WIDTH;
+            Point neckPoint = toPoint(Placement.neck(toIntRect(face)));
+            double waistWidth = calculateWaistWidth(result, face, 0.08, 5, new WaistSession()); // every photo is its own session
+            ScratchPool.forCurrentThread().clear(); // buffers of the full-size photo aren't reused by the next photo of a different size
+            double waist = Placement.photoWaistWidth(toIntRect(face), waistWidth);
 
             for (Top t : outfit.getTops()) {
-                drawClothingOnImage(result, t, waist/t.getReferenceWidth(), neckPoint);
+                drawClothingOnImage(result, t, Placement.topScale(waist, t.getReferenceWidth()), neckPoint, 0, SensorOrientation.ROTATION_0);
             }
         }
     }
 
     /***
-     * Method calculates the reference point and calls method drawClothesOnImage to add all face masks from Outfit to sourceImage.
+     * Method calculates the reference point and calls method drawClothingOnImage to add all face masks from Outfit to sourceImage.
      * Reference point for a face mask is the chin. Reference point is calculated from the rectangle representing face.
-     * X = middle of the face rectangle, Y = end of the face
-     * WARNING: Method rewrites sourceImage!
+     * X = middle of the face rectangle, Y = end of the face. Reference point is rotated with the head by the roll angle.
+     * If landmarks of the face are known, the chin is estimated from them instead.
+     * WARNING: Method rewrites sourceImage! And should only be used for standalone images.
      * */
-    private static void addFaceMasks(Mat sourceImage, Outfit outfit, Rect face) {
+    private static void addFaceMasks(Mat sourceImage, Outfit outfit, Rect face, double roll, FaceLandmarks landmarks) {
         if (!outfit.getFaceMasks().isEmpty()) {
-            Point chin = new Point(face.x + face.width/2d, face.y + face.height*MASK_SHIFT);
+            IntRect faceRect = toIntRect(face);
+            Point chin = toPoint(landmarks != null ? landmarks.chin() : Placement.roll(Placement.chin(faceRect), Placement.faceCenter(faceRect), roll));
             for(FaceMask mask : outfit.getFaceMasks()) {
-                double scale = (face.width*FACE_WIDTH_MULTIPLIER)/mask.getReferenceWidth();
-                drawClothingOnImage(sourceImage, mask, scale, chin);
+                double scale = Placement.faceClothingScale(faceRect, mask.getReferenceWidth());
+                drawClothingOnImage(sourceImage, mask, scale, chin, roll, SensorOrientation.ROTATION_0);
             }
         }
     }
 
     /***
-     * Method calculates the reference point and calls method drawClothesOnImage to add all glasses from Outfit to sourceImage.
+     * Method calculates the reference point and calls method drawClothingOnImage to add all glasses from Outfit to sourceImage.
      * Reference point for a glasses is the nose bridge. Reference point is calculated from the rectangle representing face.
-     * X = middle of the face rectangle, Y = eye level
-     * WARNING: Method rewrites sourceImage!
+     * X = middle of the face rectangle, Y = eye level. Reference point is rotated with the head by the roll angle.
+     * If landmarks of the face are known, the nose bridge is the center of the eyes instead.
+     * WARNING: Method rewrites sourceImage! And should only be used for standalone images.
      * */
-    private static void addGlasses(Mat sourceImage, Outfit outfit, Rect face) {
+    private static void addGlasses(Mat sourceImage, Outfit outfit, Rect face, double roll, FaceLandmarks landmarks) {
         if (!outfit.getGlasses().isEmpty()) {
-            Point noseBridge = new Point(Math.round(face.x + face.width/2d),Math.round(face.y + face.height*EYE_LEVEL));
+            IntRect faceRect = toIntRect(face);
+            Point noseBridge = toPoint(landmarks != null ? landmarks.noseBridge() : Placement.roll(Placement.noseBridge(faceRect), Placement.faceCenter(faceRect), roll));
             for (Glasses g: outfit.getGlasses()) {
-                double scale = (face.width*FACE_WIDTH_MULTIPLIER)/g.getReferenceWidth();
-                drawClothingOnImage(sourceImage, g, scale, noseBridge);
+                double scale = Placement.faceClothingScale(faceRect, g.getReferenceWidth());
+                drawClothingOnImage(sourceImage, g, scale, noseBridge, roll, SensorOrientation.ROTATION_0);
             }
         }
     }
@@ -229,313 +297,583 @@ public class DressingRoom {
      * @param face rectangle representing a face, use method getFace() to obtain it
      */
     public static void addClothesRT(Mat sourceImage, Outfit outfit, Rect face) {
-        if(sourceImage==null || sourceImage.empty()) throw new IllegalArgumentException("source image cannot be null or empty");
-
-        addFaceMasks(sourceImage, outfit, face);
-        addGlasses(sourceImage, outfit, face);
-        addTopsRT(sourceImage, outfit, face);
+        addClothesRT(sourceImage, outfit, face, true);
     }
 
     /***
-     * Method calculates the reference point and the width of the subject's waist. If waist wasn't detected, previously detected
-     * waist width is used. Default value of waist is 0, so if no previous waist was detected clothes won't appear on camera until waist
-     * is calibrated. This method should be used in real time and not on standalone images and appearance of clothes in images isn't promised.
-     * Method then calls method drawClothesOnImage to add all tops from Outfit to sourceImage.
-     * Reference point for tops is the neckPoint. Reference point is calculated from the rectangle representing face.
-     * X = middle of the face rectangle, Y = end of the face
-     * WARNING: Method rewrites sourceImage! And should only be used for real time clothes mapping.
-     * */
-    private static void addTopsRT(Mat sourceImage, Outfit outfit, Rect face) {
-        if (!outfit.getTops().isEmpty()) {
-            Point neckPoint = new Point(Math.round(face.x + (double) face.width/2), Math.round(face.y + face.height*NECK_SHIFT));
-            if(previousWaist==0) previousWaist = calculateWaistWidth(sourceImage, face, 0.06, 25); //changes previousWaist
-            if(previousWaist!=0) {
-                double waist = previousWaist*WAIST_WIDTH* face.width;
-                for (Top t : outfit.getTops()) {
-                    drawClothingOnImage(sourceImage, t, waist/t.getReferenceWidth(), neckPoint);
-                }
-            }
-        }
+     * Methods copies clothes from outfit to sourceImage. This method is meant to be used when adding clothes
+     * to a person in real time. If calibrateWaist is true, downscaled frames are given to a background thread calibrating the waist
+     * (see WaistCalibrationWorker), so this method doesn't wait for the calibration. If calibrateWaist is false, waist width has to be
+     * calibrated by method calibrateWaistWidth() with a session of the caller, which can be run in a different thread (see TryOnPipeline).
+     * Either way tops won't be added until the waist is calibrated.
+     * @param sourceImage source image from camera
+     * @param outfit outfit with all the clothes, that are going to be added
+     * @param face rectangle representing a face, use method getFace() to obtain it
+     * @param calibrateWaist true if waist width should be calibrated in the background, when it's needed
+     */
+    public static void addClothesRT(Mat sourceImage, Outfit outfit, Rect face, boolean calibrateWaist) {
+        addClothesRT(sourceImage, outfit, face, calibrateWaist, 0, SensorOrientation.ROTATION_0);
     }
 
-    /*** Method resets waist values and new waist calculation will be done when waist width is needed. */
-    public static void recalculateWaistWidth() {
-        previousWaist = 0;
-        waistValuesMap.clear();
+    /***
+     * Methods copies clothes from outfit directly into a frame from the camera in sensor orientation, so the frame doesn't have
+     * to be rotated to upright position and back. Clothes are rotated only once and are cached (see DressingRoomClothes).
+     * Waist isn't calibrated by this method, waist width has to be calibrated by method calibrateWaistWidth() with an upright image.
+     * @param sensorImage frame from the camera in sensor orientation
+     * @param outfit outfit with all the clothes, that are going to be added
+     * @param face rectangle representing a face in upright coordinates, use method getFace() to obtain it
+     * @param orientation orientation of the camera sensor
+     */
+    public static void addClothesRT(Mat sensorImage, Outfit outfit, Rect face, SensorOrientation orientation) {
+        addClothesRT(sensorImage, outfit, face, false, 0, orientation);
     }
 
-    /*** Method calculates ROIs (Regions Of Interest) in the approximate position of the waist, one on the left and one on the right side.
-     * Contours are then extracted from these ROIs. For loop begins in the vertical center of the ROI, and then goes up and down
-     * searching for a match. The loop first selects one point from each ROI, that is the closes to the center of the body (center of the face rectangle),
-     * The points are considerate a match if the differance between the distances of these to points to the center is less than MAX_WAIST_REF_DIFFERENCE.
-     * When a match is detected, waist width is passed to waistCalibration method. If the return value of waistCalibration() is true, waist was successfully
-     * calibrated and waist width value is returned. */
-    private static double calculateWaistWidth(Mat sourceImage, Rect face, double precision, int minMatches) {
-        double roiWidthMultiplier = 1.5;
-        int roiWidth = (int)Math.round(face.width*roiWidthMultiplier);
-
-        int roiY = face.y+(int)Math.round(face.height*(WAIST_SHIFT-0.25)); //0.25 for half the roi's height (1/4 of the face's height)
-
-        // trying to find left edge of the body at waist level using contours
-        Rect roiLeftHip = new Rect((int) Math.round(face.x - face.width * roiWidthMultiplier), roiY, roiWidth, face.height / 2);
-        List<Point> contoursLeft = getContoursFromROI(sourceImage, roiLeftHip);
-
-        // trying to find right edge of the body at waist level using contours
-        Rect roiRightHip = new Rect(face.x + face.width, roiY, roiWidth, face.height / 2);
-        List<Point> contoursRight = getContoursFromROI(sourceImage, roiRightHip);
-
-        int approxY = (int) Math.round(face.height/4.0);
-        boolean decreasing = true;
-        for(int i=0; i<approxY; i++) {
-            int y = decreasing ? approxY - i : approxY + i;
-
-            Optional<Point> left = Optional.empty();
-            if(contoursLeft != null) left= contoursLeft.stream().filter(point -> point.y == y).max(Comparator.comparingDouble(p -> p.x));
-            Optional<Point> right = Optional.empty();
-            if(contoursRight != null) right = contoursRight.stream().filter(point -> point.y == y).min(Comparator.comparingDouble(p -> p.x));
-
-            if(left.isPresent() && right.isPresent()) { //if both points were found
-                Point refLeftHip = new Point(left.get().x + roiLeftHip.x, left.get().y + roiLeftHip.y); //getting global coords
-                Point refRightHip = new Point(right.get().x + roiRightHip.x, right.get().y + roiRightHip.y); //getting global coords
-
-                int middle = face.x + face.width / 2;
-                int rightDist = (int)refRightHip.x - middle;
-                int leftDist = (int)(middle - refLeftHip.x);
-
-                // checks if detected points have roughly the same distance from the center of the body
-                if (Math.abs(rightDist - leftDist) <= sourceImage.cols()*MAX_WAIST_REF_DIFFERENCE) {
-                    double waistWidth = refRightHip.x-refLeftHip.x;
-                    if(waistCalibration(waistWidth/face.width, precision, minMatches)) return previousWaist;
-                }
-            }
-
-            // loop starts in the center and goes up and down
-            if(i>0) {
-                if(decreasing) i--;
-                decreasing = !decreasing;
-            }
+    /***
+     * Same as addClothesRT(Mat, Outfit, Rect, SensorOrientation), but face masks and glasses are rotated with the head by the roll angle.
+     * Roll is quantized to HeadRoll.STEP, so the flattened outfit isn't rebuilt with every small change of the angle.
+     * @param sensorImage frame from the camera in sensor orientation
+     * @param outfit outfit with all the clothes, that are going to be added
+     * @param face rectangle representing a face in upright coordinates, use method getFace() to obtain it
+     * @param roll clockwise roll of the head in degrees in upright coordinates, use method predictHeadRoll() to obtain it
+     * @param orientation orientation of the camera sensor
+     */
+    public static void addClothesRT(Mat sensorImage, Outfit outfit, Rect face, double roll, SensorOrientation orientation) {
+        addClothesRT(sensorImage, outfit, face, false, roll, orientation);
+    }
 
-        } //for loop end
+    /***
+     * All clothes are flattened into one layer (see OutfitOverlay), which is rebuilt only when the outfit, the size of the face, the roll
+     * or the waist changes, otherwise the layer from the previous frame is blended into sourceImage moved with the face.
+     */
+    private static void addClothesRT(Mat sourceImage, Outfit outfit, Rect face, boolean calibrateWaist, double roll, SensorOrientation orientation) {
+        if(sourceImage==null || sourceImage.empty()) throw new IllegalArgumentException("source image cannot be null or empty");
 
-        return 0;
+        if(calibrateWaist && !outfit.getTops().isEmpty() && !isWaistCalibrated() && !face.empty()) {
+            getWaistCalibrationWorker().submit(sourceImage, face); // calibrated waist is published in previousWaist
+        }
+        double calibratedWaist = previousWaist;
+        double quantizedRoll = HeadRoll.quantize(roll);
+        if(outfitOverlay.isCurrent(sourceImage, outfit, face, calibratedWaist, quantizedRoll, orientation)) {
+            DressingRoomMetrics.increment(DressingRoomMetrics.Counter.OVERLAY_REUSED);
+        } else {
+            DressingRoomMetrics.increment(DressingRoomMetrics.Counter.OVERLAY_REBUILT);
+            outfitOverlay.rebuild(sourceImage, outfit, face, calibratedWaist, quantizedRoll, orientation, getLayersRT(outfit, face, calibratedWaist, quantizedRoll));
+        }
+        outfitOverlay.blendInto(sourceImage, face);
     }
 
-    private static Mat subMat; //declaration of Mat variables in the method was causing memory leaks
     /***
-     * Method calculates ROI and detects contours in the region of the source image given by ROI.
-     * @param source image
-     * @param roi rectangle indicating an area of source image
-     * @return contours from roi
+     * Method calculates reference points and scales of all clothes from Outfit in the order, in which they are drawn: face masks, glasses and tops.
+     * Reference point for a face mask is the chin, for glasses the nose bridge and for tops the neck point (see Placement), face masks and glasses
+     * are rotated with their reference points around the center of the face by the roll of the head. If the face detector detects landmarks,
+     * reference points of face masks and glasses are taken from the landmarks of the last detection moved with the face. Tops are added only
+     * when the waist is calibrated, previously calibrated waist width is used. Default value of waist is 0, so if no previous waist was detected
+     * tops won't appear on camera until waist is calibrated. This method should be used in real time and not on standalone images.
+     * @param outfit outfit with all the clothes
+     * @param face rectangle representing a face in upright coordinates
+     * @param calibratedWaist calibrated waist width relative to the face's width, 0 if the waist isn't calibrated
+     * @param roll roll of the head in degrees
+     * @return layers of the outfit
      */
-    private static List<Point> getContoursFromROI(Mat source, Rect roi) {
-        // checking if roi is out of image's bounds
-        if(roi.x<0) {
-            roi.width += roi.x;
-            roi.x = 0;
+    private static List<OutfitOverlay.Layer> getLayersRT(Outfit outfit, Rect face, double calibratedWaist, double roll) {
+        IntRect faceRect = toIntRect(face);
+        Anchor faceCenter = Placement.faceCenter(faceRect);
+        FaceLandmarks landmarks = faceLandmarks;
+        if(landmarks != null) landmarks = landmarks.fromRelative(faceRect);
+        List<OutfitOverlay.Layer> layers = new ArrayList<>();
+        Point chin = toPoint(landmarks != null ? landmarks.chin() : Placement.roll(Placement.chin(faceRect), faceCenter, roll));
+        for (FaceMask mask : outfit.getFaceMasks()) {
+            layers.add(new OutfitOverlay.Layer(mask, Placement.faceClothingScale(faceRect, mask.getReferenceWidth()), chin, roll));
         }
-        if(roi.y<0) {
-            roi.height += roi.y;
-            roi.y = 0;
+        Point noseBridge = toPoint(landmarks != null ? landmarks.noseBridge() : Placement.roll(Placement.noseBridge(faceRect), faceCenter, roll));
+        for (Glasses g : outfit.getGlasses()) {
+            layers.add(new OutfitOverlay.Layer(g, Placement.faceClothingScale(faceRect, g.getReferenceWidth()), noseBridge, roll));
         }
-        if(roi.x+roi.width>source.width()) roi.width = source.width() - roi.x;
-        if(roi.y+roi.height>source.height()) roi.height = source.height() - roi.y;
-
-        if(roi.width <= 0 || roi.height <= 0) return null;
-
-        // getting contours from submat
-        subMat = source.submat(roi);
-        List<Point> points = Contours.getVerticalContours(subMat);
-        subMat.release();
+        if(calibratedWaist != 0) {
+            Point neckPoint = toPoint(Placement.neck(faceRect));
+            double waist = calibratedWaist*face.width;
+            for (Top t : outfit.getTops()) {
+                layers.add(new OutfitOverlay.Layer(t, Placement.topScale(waist, t.getReferenceWidth()), neckPoint, 0));
+            }
+        }
+        return layers;
+    }
 
-        return points;
+    private static WaistCalibrationWorker waistCalibrationWorker; // created with the first real time calibration
+    private static synchronized WaistCalibrationWorker getWaistCalibrationWorker() {
+        if(waistCalibrationWorker == null) waistCalibrationWorker = new WaistCalibrationWorker();
+        return waistCalibrationWorker;
     }
 
-    private static final Map<Double, List<Double>> waistValuesMap = new HashMap<>();
+    private static final int WAIST_FACE_WIDTH = 96; // pixels, frames are downscaled for the waist calibration, so the face isn't wider
     /***
-     * Every detected waist width is passed to this method. Method creates a HashMap, where keys are the increments of precision variable.
-     * Precision indicates how precise calibration will be, because every HashMap entry will contain a  increment of the precision and a list.
-     * The list contains waist width values satisfying the interval: key - precision/2 < waist <= key + (3*precision)/2.
-     * When any list size passes minMatches, calibration is completed and a median of the values in this list is returned.
-     * @param newValue detected waist width
-     * @param precision detected waist width / face's width
-     * @param minMatches minimum number of matches, that will end the calibration
-     * @return calibrated waist width value in relation to face width
+     * Downscales the frame, so the face is at most WAIST_FACE_WIDTH pixels wide. Waist width is measured relative to the face's width,
+     * so the calibration doesn't depend on the resolution, but the edge detection in the hip regions is much cheaper.
+     * @param image upright frame
+     * @param face face detected in the frame
+     * @param dst destination, the frame is copied if it isn't downscaled
+     * @return face in the coordinates of the downscaled frame
      */
-    private static boolean waistCalibration(double newValue, double precision, int minMatches) {
-        double i = (3*precision)/2;
-        while(newValue>i) {
-            i+=precision;
-        }
-        double key = i - precision/2;
-        if(waistValuesMap.containsKey(key)) {
-            // if map already contains an entry with this key, newValue is added to the corresponding list
-            Objects.requireNonNull(waistValuesMap.get(key)).add(newValue);
-        } else {
-            // if map doesn't have an entry with this key, entry is create with a new list containing newValue
-            List<Double> list = new ArrayList<>();
-            list.add(newValue);
-            waistValuesMap.put(key, list);
+    static Rect downscaleForWaist(Mat image, Rect face, Mat dst) {
+        double scale = face.width > WAIST_FACE_WIDTH ? (double) WAIST_FACE_WIDTH / face.width : 1;
+        if(scale == 1) {
+            image.copyTo(dst);
+            return face.clone();
         }
+        Imgproc.resize(image, dst, new Size(Math.round(image.cols()*scale), Math.round(image.rows()*scale)), 0, 0, Imgproc.INTER_AREA);
+        return new Rect((int) Math.round(face.x*scale), (int) Math.round(face.y*scale), (int) Math.round(face.width*scale), (int) Math.round(face.height*scale));
+    }
 
-        List<Double> waistValues = waistValuesMap.get(key);
-        assert waistValues != null;
-        int waistValuesSize = waistValues.size();
-
-        // if number of values in the list reaches MIN_WAIST_MATCHES, the waist is set to median of the values in the list
-        if(waistValuesSize >= minMatches) {
-            Collections.sort(waistValues);
-            if (waistValuesSize % 2 == 1) {
-                previousWaist = waistValues.get((waistValuesSize + 1) / 2 - 1);
+    /***
+     * Method runs one step of real time waist calibration, if the waist isn't calibrated yet. Waist is calibrated once enough
+     * matching waist widths were detected in the frames of the session. Frames with large faces are downscaled first (see downscaleForWaist()).
+     * The calibrated waist is published atomically, so method can be called from a different thread than method addClothesRT(),
+     * but only from one thread at a time for the same session. Downscaled frame and Mats of the edge detection are taken from the scratch pool
+     * of the calling thread (see ScratchPool), other buffers of the edge detection belong to the session, so steady-state frames
+     * don't allocate native memory.
+     * @param sourceImage frame from the camera (RGBA or grayscale), image isn't changed
+     * @param face rectangle representing a face detected in sourceImage
+     * @param session calibration session of the caller, it's reset here if the waist was reset since the last call
+     * @return true if the waist is calibrated
+     */
+    public static boolean calibrateWaistWidth(Mat sourceImage, Rect face, WaistSession session) {
+        long resetCount = waistResetCount;
+        if(session.resetCount != resetCount) session.reset();
+        if(previousWaist==0 && !face.empty()) {
+            if(session.calibrationStart == 0) session.calibrationStart = System.nanoTime();
+            ScratchPool pool = ScratchPool.forCurrentThread();
+            Mat waistImage = null;
+            Mat image = sourceImage;
+            if(face.width > WAIST_FACE_WIDTH) {
+                waistImage = pool.acquire(0, 0, sourceImage.type()); // keeps the downscaled size between frames
+                face = downscaleForWaist(sourceImage, face, waistImage);
+                image = waistImage;
             }
-            else {
-                double lowerMiddle = waistValues.get(waistValuesSize / 2 - 1);
-                double upperMiddle = waistValues.get(waistValuesSize / 2);
-                previousWaist = (lowerMiddle + upperMiddle) / 2.0;
+            double waist = calculateWaistWidth(image, face, 0.06, 25, session);
+            if(waist != 0) {
+                synchronized (waistLock) { // waist reset during the calibration isn't overwritten
+                    if(waistResetCount == resetCount) previousWaist = waist;
+                }
+                DressingRoomMetrics.record(DressingRoomMetrics.Stage.WAIST_CONVERGENCE, System.nanoTime() - session.calibrationStart);
+                session.reset();
             }
-            return true;
+            if(waistImage != null) pool.release(waistImage);
         }
+        return previousWaist!=0;
+    }
+
+    /*** @return true if the waist width used for real time mapping of tops is calibrated */
+    public static boolean isWaistCalibrated() {
+        return previousWaist!=0;
+    }
+
+    /*** Method resets waist values and new waist calculation will be done when waist width is needed. */
+    public static void recalculateWaistWidth() {
+        synchronized (waistLock) {
+            previousWaist = 0;
+            waistResetCount++;
+        }
+    }
+
+    /*** @return number of waist resets, sessions compare it with the value they were reset at (see WaistSession) */
+    static long getWaistResetCount() {
+        return waistResetCount;
+    }
 
-        return false;
+    /*** Method calculates ROIs (Regions Of Interest) in the approximate position of the waist, one on the left and one on the right side.
+     * Contours are then extracted from these ROIs and for every row of the ROIs the contour closest to the center of the body (center
+     * of the face rectangle) is selected. Rows are then searched by WaistSearch for a match. When a match is detected, waist width is passed
+     * to the calibrator of the session. If the calibrator matched enough widths, waist was successfully calibrated and waist width value is returned. */
+    private static double calculateWaistWidth(Mat sourceImage, Rect face, double precision, int minMatches, WaistSession session) {
+        long start = DressingRoomMetrics.start();
+        double waistWidth = searchWaistWidth(sourceImage, toIntRect(face), precision, minMatches, session);
+        DressingRoomMetrics.stop(DressingRoomMetrics.Stage.WAIST_WIDTH, start);
+        return waistWidth;
     }
 
+    private static double searchWaistWidth(Mat sourceImage, IntRect face, double precision, int minMatches, WaistSession session) {
+        // trying to find left edge of the body at waist level using contours
+        IntRect roiLeftHip = Placement.leftHipRegion(face).clipTo(sourceImage.cols(), sourceImage.rows());
+        int[] contoursLeft = getContoursFromROI(sourceImage, roiLeftHip, session.leftEdges, session);
+
+        // trying to find right edge of the body at waist level using contours
+        IntRect roiRightHip = Placement.rightHipRegion(face).clipTo(sourceImage.cols(), sourceImage.rows());
+        int[] contoursRight = getContoursFromROI(sourceImage, roiRightHip, session.rightEdges, session);
+
+        int middle = face.x + face.width / 2;
+        boolean calibrated = WaistSearch.search(contoursLeft, roiLeftHip.x, contoursRight, roiRightHip.x, middle,
+                sourceImage.cols()*Placement.MAX_WAIST_REF_DIFFERENCE, Placement.waistSearchCenter(face), waistWidth -> {
+                    long calibrationStart = DressingRoomMetrics.start();
+                    boolean matched = session.calibrator.add(waistWidth/face.width, precision, minMatches);
+                    DressingRoomMetrics.stop(DressingRoomMetrics.Stage.WAIST_CALIBRATION, calibrationStart);
+                    return matched;
+                });
+
+        return calibrated ? session.calibrator.getWaist() : 0;
+    }
 
+    /***
+     * Method detects edges in the region of the source image given by ROI and selects one edge point in every row. By default the edge mask
+     * is scanned from the side of the torso (WaistDetector.EDGE_SCAN), otherwise contours are extracted and their points are collected
+     * into the edge map in one pass (WaistDetector.CONTOURS), either way the search for the waist is linear in rows.
+     * @param source image
+     * @param roi rectangle indicating an area of source image, has to be inside the image
+     * @param edges edge map, that selects the rightmost (left hip) or the leftmost (right hip) point in every row
+     * @param session session of the caller, its pixel buffer is reused by WaistDetector.EDGE_SCAN
+     * @return x coordinates of the selected points indexed by rows of the roi (WaistSearch.NO_EDGE if the row has no contour), null if roi is empty
+     */
+    private static int[] getContoursFromROI(Mat source, IntRect roi, EdgeMap edges, WaistSession session) {
+        if(roi.empty()) return null;
+
+        // getting contours from submat, submat only references the source image, so it's released right away
+        Mat subMat = source.submat(new Rect(roi.x, roi.y, roi.width, roi.height));
+        try {
+            edges.reset(roi.height);
+            if(waistDetector == WaistDetector.EDGE_SCAN) session.edgePixels = Contours.scanVerticalEdges(subMat, edges, session.edgePixels);
+            else Contours.getVerticalEdges(subMat, edges);
+        } finally {
+            subMat.release();
+        }
+        return edges.getEdges();
+    }
 
-    private static final HaarCascade haarCascade2 = new HaarCascade();
     private static Mat reducedImage; //declaration of Mat variables in the method was causing memory leaks
-    private static Rect previousFace = new Rect(0,0,0,0); // used for stabilization and preventing false negative detections
-    private static final int MAX_FACE_DIFFERENCE = 5; // the amount of pixels that two face detections can differ before the change is acknowledged, used in stabilization
+    private static Rect previousFace = new Rect(0,0,0,0); // used for local search and preventing false negative detections
+    private static volatile FaceLandmarks faceLandmarks; // landmarks of the last detected face relative to the face, null if they aren't detected
+    private static final FaceKalmanFilter faceFilter = new FaceKalmanFilter(); // used for stabilization and prediction
     private static final int MAX_SKIPPED_FRAMES = 5;
     private static int skippedFramesCounter = 0;
+
+    private static volatile boolean detectionDownscaling = false;
+    private static volatile WaistDetector waistDetector = WaistDetector.EDGE_SCAN;
+    private static final double MAX_FACE_SHRINK = 0.6; // the smallest expected size of the face in the next frame relative to previous face's width
+    private static final int DETECTION_WIDTH_STEP = 16; // target width is rounded to this step, so the downscaled image isn't reallocated with every frame
+    private static final Mat detectionImage = new Mat(); //declaration of Mat variables in the method was causing memory leaks
+
+    private static volatile boolean localSearch = false;
+    private static final double SEARCH_WINDOW_MARGIN = 0.5; // percentage of the previous face's size added to each side of the search window
+    private static final double LOCAL_SIZE_TOLERANCE = 0.25; // percentage of the previous face's width, limits minSize and maxSize of local search
+    private static boolean previousSearchMissed = true;
+
+    private static final FaceTracker faceTracker = new FaceTracker();
+    private static volatile int detectionInterval = 0; // 0 = tracking is disabled, face is detected in every frame
+    private static int framesSinceDetection = 0;
+
     /***
-     * Method runs Haar cascade detection in parameter image to find faces. If no faces are detected returns empty rectangle.
+     * Turns on detection-resolution mode for method getFace(). Image is downscaled once before the detection, so that the smallest
+     * searched face has roughly the size of the cascade's window. The scale is chosen from the size of the previously detected face,
+     * if no face was detected, it's chosen from the smallest allowed face size. Detected rectangles are mapped back to the original resolution.
+     * @param enabled true to detect faces in downscaled images, false to detect in the full resolution
+     */
+    public static void setDetectionDownscaling(boolean enabled) {
+        detectionDownscaling = enabled;
+    }
+
+    /***
+     * Sets how the edges of the body are found during waist calibration. Default detector is WaistDetector.EDGE_SCAN, which scans
+     * the edge mask directly and skips extraction of contours (WaistDetector.CONTOURS).
+     * @param detector waist detector
+     */
+    public static void setWaistDetector(WaistDetector detector) {
+        if(detector == null) throw new IllegalArgumentException("detector cannot be null");
+        waistDetector = detector;
+    }
+    /***
+     * Method runs face detection in parameter image to find faces (Haar cascades by default, see setFaceDetector()). If no faces are detected returns empty rectangle.
      * If multiple faces are detected, method returns face closest to the camera. Method should be used, when adding clothes in real time.
-     * It's recommended not to run this method on the UI thread.
-     * @param image frame from the camera
+     * It's recommended not to run this method on the UI thread. Image isn't changed nor released by this method,
+     * so it can be reused for next frames (e.g. Mat acquired from FrameExchange).
+     * @param image frame from the camera (RGBA or grayscale)
      * @return rectangle representing detected face
      */
     public static Rect getFace(Mat image) {
+        return getFace(image, System.nanoTime());
+    }
+
+    /***
+     * Method runs face detection in parameter image to find faces, same as method getFace(Mat). Detected face is filtered
+     * by a Kalman filter, that uses the timestamp to estimate velocity of the face. Filtered face can be then predicted at the time
+     * of a later frame using method predictFace().
+     * @param image frame from the camera (RGBA or grayscale)
+     * @param timestamp time when the frame was captured (System.nanoTime())
+     * @return rectangle representing detected face (filtered)
+     */
+    public static Rect getFace(Mat image, long timestamp) {
+        return getFace(image, timestamp, FaceTracker.UNKNOWN_FRAME);
+    }
+
+    /***
+     * Method runs face detection in parameter image to find faces, same as method getFace(Mat, long). Frame number tells the face
+     * tracker (see setFaceTracking()), how many frames from the camera were skipped since the previous call, so frames don't have
+     * to be consecutive.
+     * @param image frame from the camera (RGBA or grayscale)
+     * @param timestamp time when the frame was captured (System.nanoTime())
+     * @param frame number of the frame from the camera, increased by one with every frame from the camera
+     * @return rectangle representing detected face (filtered)
+     */
+    public static Rect getFace(Mat image, long timestamp, long frame) {
+        long start = DressingRoomMetrics.start();
+        Rect face = findFace(image, timestamp, frame);
+        DressingRoomMetrics.stop(DressingRoomMetrics.Stage.GET_FACE, start);
+        return face;
+    }
+
+    private static Rect findFace(Mat image, long timestamp, long frame) {
+        // between detections, the face is tracked until the tracking confidence drops or too many frames are skipped
+        if(detectionInterval > 1 && framesSinceDetection < detectionInterval && faceTracker.isTracking()) {
+            Rect tracked = faceTracker.track(image, frame);
+            if(tracked != null) {
+                DressingRoomMetrics.increment(DressingRoomMetrics.Counter.FACE_TRACKED);
+                framesSinceDetection++;
+                previousFace = faceFilter.update(tracked, timestamp);
+                return previousFace;
+            }
+        }
+
         // detection will run only on the upper half of the picture to reduce runtime
         Rect roi = new Rect(0,0, image.cols(), (int) Math.round(image.rows()/2d));
+        int minFaceSize = (int)Math.round(image.cols()*MIN_FACE_SIZE);
+        int maxFaceSize = (int)Math.round(image.cols()*MAX_FACE_SIZE);
+
+        // if the face was found recently, only its surroundings are searched
+        boolean isLocalSearch = localSearch && !previousSearchMissed && !previousFace.empty();
+        if(isLocalSearch) {
+            int marginX = (int) Math.round(previousFace.width*SEARCH_WINDOW_MARGIN);
+            int marginY = (int) Math.round(previousFace.height*SEARCH_WINDOW_MARGIN);
+            int x = Math.max(0, previousFace.x - marginX);
+            int y = Math.max(0, previousFace.y - marginY);
+            int width = Math.min(image.cols(), previousFace.x + previousFace.width + marginX) - x;
+            int height = Math.min(image.rows(), previousFace.y + previousFace.height + marginY) - y;
+            if(width > 0 && height > 0) {
+                roi = new Rect(x, y, width, height);
+                minFaceSize = Math.max(minFaceSize, (int) Math.floor(previousFace.width*(1 - LOCAL_SIZE_TOLERANCE)));
+                maxFaceSize = Math.max(minFaceSize, (int) Math.ceil(previousFace.width*(1 + LOCAL_SIZE_TOLERANCE)));
+            } else isLocalSearch = false;
+        }
         reducedImage = image.submat(roi);
 
         // finding face in the image
-        List<Rect> haarDetectionResults = haarCascade2.applyClassifier(reducedImage, frontalFaceClassifier2, (int)Math.round(image.cols()*MIN_FACE_SIZE), (int)Math.round(image.cols()*MAX_FACE_SIZE));
+        FaceDetector detector = faceDetector;
+        List<Rect> haarDetectionResults = detectFacesRT(detector, reducedImage, minFaceSize, maxFaceSize);
 
         reducedImage.release();
-        image.release();
+        previousSearchMissed = haarDetectionResults.isEmpty();
+        if(isLocalSearch) {
+            // getting global coords
+            for (Rect r : haarDetectionResults) {
+                r.x += roi.x;
+                r.y += roi.y;
+            }
+        }
 
         if(haarDetectionResults.isEmpty()) {
+            DressingRoomMetrics.increment(DressingRoomMetrics.Counter.DETECTION_MISS);
+            faceTracker.reset();
             // fixes false negative detections
             skippedFramesCounter++;
             if (skippedFramesCounter > MAX_SKIPPED_FRAMES) {
-                previousFace = new Rect(0,0,0,0);
-                previousWaist = 0;
+                if(!previousFace.empty()) DressingRoomMetrics.increment(DressingRoomMetrics.Counter.FACE_LOST);
+                forgetFace();
                 skippedFramesCounter = 0;
                 recalculateWaistWidth(); //when the face disappears from the frame, the waistWidth is reset
-            }
+            } else if(!previousFace.empty()) DressingRoomMetrics.increment(DressingRoomMetrics.Counter.DETECTION_SKIP);
             return previousFace;
         } else {
+            DressingRoomMetrics.increment(DressingRoomMetrics.Counter.DETECTION_HIT);
             skippedFramesCounter = 0;
         }
 
         // selects face closest to the camera (rect with the biggest area)
-        Rect result = haarDetectionResults.stream().max(Comparator.comparing(Rect::area)).orElse(haarDetectionResults.get(0));
-        // without stabilization clothing appears to be shaking, due to small changes in face detection even if the device isn't moving
-        result = stabilizeFaceDetection(result);
+        int faceIndex = closestFace(haarDetectionResults);
+        Rect result = haarDetectionResults.get(faceIndex);
+        // landmarks give the roll in every detected frame, so eyes don't have to be detected by estimateHeadRoll()
+        FaceLandmarks landmarks = detector.getLandmarks(faceIndex);
+        if(landmarks != null) rollFilter.update(landmarks.fromRelative(toIntRect(result)).roll(), timestamp);
+        faceLandmarks = landmarks;
+        if(detectionInterval > 1) {
+            faceTracker.start(image, result, frame);
+            framesSinceDetection = 0;
+        }
+        // without filtering clothing appears to be shaking, due to small changes in face detection even if the device isn't moving
+        result = faceFilter.update(result, timestamp);
 
         previousFace = result;
         return result;
     }
 
-    /**
-     * If any variables of the newly detected face differ from the variables of the previously detected face
-     *  by more than MAX_FACE_DIFFERENCE method returns new face, otherwise method return previously detected face.
-     *  Calculations of the clothes' width and position are heavily dependent of these values and when stabilization
-     *  isn't used, slight changes to the face's rectangle result in rapid resizing and movements of the clothes.
-     *  */
-    private static Rect stabilizeFaceDetection(Rect newFace) {
-        if(isMoreThanDiff(previousFace.x, newFace.x)
-                || isMoreThanDiff(previousFace.y, newFace.y)
-                || isMoreThanDiff(previousFace.width, newFace.width)
-                || isMoreThanDiff(previousFace.height, newFace.height)) {
-            return newFace;
-        } else return previousFace;
-    }
-
-    private static boolean isMoreThanDiff(int oldValue, int newValue) {
-        return Math.abs(oldValue-newValue) > MAX_FACE_DIFFERENCE;
-    }
-
-    private static Mat clothingROI, resultROI; //declaration of Mat variables in the method was causing memory leaks
-    private static final Mat clothingResized = new Mat();
-    /**
-     * Method first resizes the clothes, then calculates regions of interest (ROIs) for clothes and the original image.
-     * If clothing ranges outside the original image, ROI of the clothes is cropped.
-     * Clothes ROI is then copied to original image's ROI. ROIs are necessary, because method copyTo() only works with
-     * images that are the same size.
-     * */
-    private static void drawClothingOnImage(Mat orgImage, DressingRoomClothes clothes, double scale, Point orgCenter) {
-        // resizing clothes to fit
-        int width = (int) Math.round(clothes.getSourceImage().width() * scale);
-        int height = (int) Math.round(clothes.getSourceImage().height() * scale);
-        Imgproc.resize(clothes.getSourceImage(), clothingResized, new Size(width, height));
-
-        // new center coordinates
-        Point center = new Point(clothes.getReferenceCenter().x * scale, clothes.getReferenceCenter().y * scale);
-
-        // calculating ROIs for source image and for clothes, method CopyTo() used for merging mats requires mats to be the same size
-        int roiX = (int)(orgCenter.x-center.x);
-        int roiY = (int)(orgCenter.y-center.y);
-        int roiWidth = clothingResized.width();
-        int roiHeight = clothingResized.height();
-
-        int clothingRoiX = 0;
-        int clothingRoiY = 0;
-
-        // roi starts outside the original photo's plane, mat with clothing needs to be cropped
-        if (roiX < 0) {
-            clothingRoiX = -roiX;
-            roiWidth += roiX;
-            roiX = 0;
-        }
-        // roi is completely outside the original photo's plane, drawing isn't necessary
-        else if (roiX > orgImage.width()) return;
+    /***
+     * Forgets the face of the previous real time session: the filtered face and its velocity (see predictFace()), the tracked face,
+     * the roll of the head and the state of the local search, so the next call of getFace() starts with a new face in the whole frame.
+     * Method is called by TryOnPipeline.start(), it should be called whenever a new real time session starts, while getFace() isn't running.
+     */
+    public static void resetFace() {
+        forgetFace();
+        faceTracker.reset();
+        skippedFramesCounter = 0;
+        framesSinceDetection = 0;
+        previousSearchMissed = true;
+    }
+
+    private static void forgetFace() {
+        previousFace = new Rect(0,0,0,0);
+        faceLandmarks = null;
+        faceFilter.reset();
+        rollFilter.reset();
+    }
+
+    /***
+     * Turns on local re-detection mode for method getFace(). When a face was found in the previous detection, cascade searches only
+     * a window around the previous face (expanded by SEARCH_WINDOW_MARGIN on each side) and only faces, whose width differs from the previous
+     * face by less than LOCAL_SIZE_TOLERANCE. After a miss, the next detection searches the whole upper half of the frame again.
+     * @param enabled true to search around the previous face, false to always search the whole upper half of the frame
+     */
+    public static void setLocalSearch(boolean enabled) {
+        localSearch = enabled;
+    }
+
+    /***
+     * Turns on detect-then-track mode for method getFace(). Full Haar cascade detection is run only every detectionInterval frames
+     * or when the tracking confidence drops, in the frames between the detected face is tracked using optical flow, which is
+     * much cheaper than the detection. Frames given to getFace() have to be consecutive frames from the camera for tracking to work,
+     * unless they are numbered (see getFace(Mat, long, long)).
+     * @param interval maximum number of frames between two detections, 0 or 1 turns tracking off
+     */
+    public static void setFaceTracking(int interval) {
+        detectionInterval = Math.max(0, interval);
+    }
 
-        // the same, but for roi's Y coordinate
-        if (roiY < 0) {
-            clothingRoiY = -roiY;
-            roiHeight += roiY;
-            roiY = 0;
+    /***
+     * Runs face detection in the given region of a frame. In detection-resolution mode, region is downscaled (INTER_AREA) to the width,
+     * where the smallest expected face is as wide as the smallest face the detector detects reliably (FaceDetector.getMinFaceSize()),
+     * and detected rectangles are mapped back to the region's resolution. Regions wider than the detector's maximum input width
+     * are always downscaled to this width. Exact ratios between the sizes of the images are used for the mapping, rounding is done only once
+     * for the final rectangles.
+     * @param detector detector of the faces
+     * @param region part of the frame where faces are searched
+     * @param minFaceSize the smallest face in the region's resolution
+     * @param maxFaceSize the largest face in the region's resolution
+     * @return detected faces in the region's coordinates
+     */
+    private static List<Rect> detectFacesRT(FaceDetector detector, Mat region, int minFaceSize, int maxFaceSize) {
+        int minDetectionFaceSize = detector.getMinFaceSize();
+
+        // the smallest face, that can appear in the frame
+        double smallestFace = minFaceSize;
+        int targetWidth = region.cols();
+        if(detectionDownscaling) {
+            if(!previousFace.empty()) smallestFace = Math.max(smallestFace, previousFace.width*MAX_FACE_SHRINK);
+            targetWidth = (int) Math.ceil(region.cols() * minDetectionFaceSize / smallestFace / DETECTION_WIDTH_STEP) * DETECTION_WIDTH_STEP;
         }
-        else if (roiY > orgImage.height()) return;
-
-        // if the roi spreads outside the original photo's plane
-        if(roiX+roiWidth > orgImage.width()) roiWidth = orgImage.width() - roiX;
-        if(roiY+roiHeight > orgImage.height()) roiHeight = orgImage.height() - roiY;
-
-        // creating clothing ROI in case the clothing is outside the original photo's plane
-        Rect roiClothes = new Rect(clothingRoiX, clothingRoiY, roiWidth, roiHeight);
-        clothingROI = clothingResized.submat(roiClothes);
-
-        // creating original image's roi
-        Rect roi = new Rect(roiX, roiY, roiWidth, roiHeight);
-        resultROI = orgImage.submat(roi);
-
-        // merging images
-        List<Mat> channels = new ArrayList<>();
-        Core.split(clothingROI, channels);
-        if(channels.size() > 3) clothingROI.copyTo(resultROI, channels.get(3)); // overlaying images with alpha channel as a mask
-        else {
-            clothingROI.copyTo(resultROI);
-            Log.e(TAG, "Alpha channel not found");
+        int maxInputWidth = detector.getMaxInputWidth();
+        if(maxInputWidth > 0) targetWidth = Math.min(targetWidth, maxInputWidth);
+
+        if(targetWidth >= region.cols()) return detector.detect(region, minFaceSize, maxFaceSize);
+        int targetHeight = (int) Math.round(region.rows() * (double) targetWidth / region.cols());
+        if(targetHeight <= minDetectionFaceSize) return detector.detect(region, minFaceSize, maxFaceSize);
+
+        Imgproc.resize(region, detectionImage, new Size(targetWidth, targetHeight), 0, 0, Imgproc.INTER_AREA);
+        double scaleX = (double) region.cols() / targetWidth;
+        double scaleY = (double) region.rows() / targetHeight;
+
+        int detectionMinSize = Math.max(minDetectionFaceSize, (int) Math.floor(smallestFace / scaleX));
+        int detectionMaxSize = Math.max(detectionMinSize, (int) Math.ceil(maxFaceSize / scaleX));
+        List<Rect> downscaledResults = detector.detect(detectionImage, detectionMinSize, detectionMaxSize);
+
+        // mapping results back to the original resolution
+        List<Rect> results = new ArrayList<>(downscaledResults.size());
+        for(Rect r : downscaledResults) {
+            int x = (int) Math.round(r.x * scaleX);
+            int y = (int) Math.round(r.y * scaleY);
+            results.add(new Rect(x, y, (int) Math.round((r.x + r.width) * scaleX) - x, (int) Math.round((r.y + r.height) * scaleY) - y));
         }
+        return results;
+    }
+
+    /***
+     * Predicts position and size of the face at the given time from the faces detected by method getFace(). Detection results
+     * are one or more frames old, when they are used for adding clothes, prediction compensates this latency,
+     * so clothes don't lag behind head movements. Method can be called from a different thread than method getFace().
+     * @param timestamp time when the frame, where clothes will be added, was captured (System.nanoTime())
+     * @return predicted face, empty rectangle if no face is detected
+     */
+    public static Rect predictFace(long timestamp) {
+        return faceFilter.predict(timestamp);
+    }
+
+    private static final HeadRollEstimator headRollEstimator = new HeadRollEstimator();
+    private static final RollFilter rollFilter = new RollFilter(); // smooths the roll between estimations
+    /***
+     * Estimates the roll of the head from the eyes detected in the upper half of the face. Estimation is much cheaper than the face
+     * detection, but it's still meant to be run at a lower rate than the frame rate (e.g. 5 times per second) on a separate thread,
+     * the angle is smoothed between estimations (see predictHeadRoll()). Method should be called from one thread at a time.
+     * If the face detector detects landmarks (see hasFaceLandmarks()), roll is updated by method getFace() and eyes aren't detected.
+     * @param image upright frame (RGBA or grayscale), image isn't changed
+     * @param face face detected in the image
+     * @param timestamp time when the frame was captured (System.nanoTime())
+     * @return true if the eyes were detected and the roll was updated
+     */
+    public static boolean estimateHeadRoll(Mat image, Rect face, long timestamp) {
+        if(face.empty()) return false;
+        if(faceLandmarks != null) return true;
+        double roll = headRollEstimator.estimate(image, face, eyesClassifier2);
+        if(Double.isNaN(roll)) return false;
+        rollFilter.update(roll, timestamp);
+        return true;
+    }
+
+    /***
+     * @return true if landmarks of the face were detected with the face (see FaceDetector.getLandmarks()), roll is then updated by method getFace()
+     * in every frame, where the face is detected, and method estimateHeadRoll() doesn't have to be called
+     */
+    public static boolean hasFaceLandmarks() {
+        return faceLandmarks != null;
+    }
+
+    /***
+     * Roll smoothly approaches the latest estimation (see RollFilter), it's 0 until the roll is estimated and after the face is lost.
+     * @param timestamp time when the frame, where clothes will be added, was captured (System.nanoTime())
+     * @return clockwise roll of the head in degrees in upright coordinates
+     */
+    public static double predictHeadRoll(long timestamp) {
+        return rollFilter.get(timestamp);
+    }
+
+    private static final SpriteCache spriteCache = new SpriteCache();
+    /***
+     * Sets the size of the cache of resized clothes. Clothes are resized by quantized scales and reused in the following frames,
+     * while the face doesn't change its size. Default size is 16 MB.
+     * @param bytes maximum size of the cached clothes in bytes, 0 turns caching off
+     */
+    public static void setSpriteCacheSize(long bytes) {
+        spriteCache.setBudget(bytes);
+    }
 
-        for(int i=0; i<channels.size(); i++) {
-            channels.get(i).release();
+    private static final SpriteCompositor spriteCompositor = new SpriteCompositor();
+    private static final OutfitOverlay outfitOverlay = new OutfitOverlay(spriteCache, spriteCompositor); // used only for real time mapping
+    /**
+     * Method first calculates regions of interest (ROIs) for clothes and the original image (see ClothingPlacement), if clothing ranges
+     * outside the original image, ROI of the clothes is cropped. Then it resizes the clothes (resized clothes are cached by SpriteCache)
+     * and alpha blends clothes ROI into original image's ROI (see SpriteCompositor), orgImage has to be RGBA. Reference point uprightCenter
+     * is in upright coordinates, clothes are drawn in given orientation of orgImage (rotated clothes are used and the reference point is mapped
+     * to sensor coordinates). Clothes rotated by roll are warped by one small affine transformation into the region of orgImage they cover.
+     * */
+    private static void drawClothingOnImage(Mat orgImage, DressingRoomClothes clothes, double scale, Point uprightCenter, double roll, SensorOrientation orientation) {
+        long start = DressingRoomMetrics.start();
+        ClothingPlacement placement = ClothingPlacement.place(clothes, scale, uprightCenter, roll, orientation, orgImage.size());
+        // roi is completely outside the original photo's plane, drawing isn't necessary
+        if(placement != null) {
+            SpriteCache.ScaledSprite clothingResized = spriteCache.getResized(placement.sprite, placement.scale);
+            if(placement.warp != null) spriteCompositor.blendWarped(clothingResized, placement.warp, orgImage);
+            else spriteCompositor.blend(clothingResized, placement.spriteRoi, orgImage, placement.imageRoi);
         }
-        clothingROI.release();
-        resultROI.release();
-        clothingResized.release();
+        DressingRoomMetrics.stop(DressingRoomMetrics.drawStage(clothes), start);
     }
 
-}
\ No newline at end of file
+    private static IntRect toIntRect(Rect rect) {
+        return new IntRect(rect.x, rect.y, rect.width, rect.height);
+    }
+
+    private static Point toPoint(Anchor anchor) {
+        return new Point(anchor.x, anchor.y);
+    }
+}
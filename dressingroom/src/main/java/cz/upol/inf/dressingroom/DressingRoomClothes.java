@@ -5,6 +5,13 @@ import android.graphics.Bitmap;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
 
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cz.upol.inf.dressingroom.core.Anchor;
+import cz.upol.inf.dressingroom.core.Placement;
+
 /***
  * Abstract class for all clothing types, all clothing types must extend this class.
  */
@@ -12,27 +19,58 @@ abstract class DressingRoomClothes {
     private Mat src;
     private Point leftReferencePoint;
     private Point rightReferencePoint;
+    private final Map<SensorOrientation, PreparedSprite> sprites = new EnumMap<>(SensorOrientation.class); // prepared source image in sensor orientations
+    private static final AtomicLong versions = new AtomicLong();
+    private volatile long version = versions.incrementAndGet(); // changes with every change of the clothing, used by OutfitOverlay
 
     public DressingRoomClothes(Mat src, Point leftReferencePoint, Point rightReferencePoint) {
-        this.src = src;
         this.leftReferencePoint = leftReferencePoint;
         this.rightReferencePoint = rightReferencePoint;
+        setSourceImage(src);
     }
 
     public DressingRoomClothes(Bitmap src, Point leftReferencePoint, Point rightReferencePoint) {
-        this.src = Convert.bitmapToMat(src);
-        this.leftReferencePoint = leftReferencePoint;
-        this.rightReferencePoint = rightReferencePoint;
+        this(Convert.bitmapToMat(src, true), leftReferencePoint, rightReferencePoint);
     }
 
     public Mat getSourceImage() {
         return src;
     }
     public void setSourceImage(Bitmap src) {
-        this.src = Convert.bitmapToMat(src);
+        setSourceImage(Convert.bitmapToMat(src, true));
     }
+    /*** Sets source image (RGBA with straight alpha) and prepares it for drawing (see PreparedSprite). */
     public void setSourceImage(Mat src) {
-        this.src = src;
+        PreparedSprite sprite = PreparedSprite.prepare(src);
+        synchronized (sprites) {
+            for (PreparedSprite s : sprites.values()) s.release();
+            sprites.clear();
+            sprites.put(SensorOrientation.ROTATION_0, sprite);
+            this.src = src;
+        }
+        version = versions.incrementAndGet();
+    }
+
+    /***
+     * Prepared source image rotated, so it can be drawn directly into a frame in given sensor orientation. The image is prepared
+     * when the source image is set and it's rotated only once, the rotated sprite is cached for the following calls.
+     * @param orientation orientation of the frame that the clothing will be drawn into
+     * @return prepared sprite in sensor orientation
+     */
+    PreparedSprite getSprite(SensorOrientation orientation) {
+        synchronized (sprites) {
+            PreparedSprite sprite = sprites.get(orientation);
+            if(sprite == null) {
+                sprite = sprites.get(SensorOrientation.ROTATION_0).rotate(orientation);
+                sprites.put(orientation, sprite);
+            }
+            return sprite;
+        }
+    }
+
+    /*** @return number, that changes whenever the source image or the reference points change */
+    long getVersion() {
+        return version;
     }
 
     public Point getLeftReferencePoint() {
@@ -40,6 +78,7 @@ abstract class DressingRoomClothes {
     }
     public void setLeftReferencePoint(Point leftReferencePoint) {
         this.leftReferencePoint = leftReferencePoint;
+        version = versions.incrementAndGet();
     }
 
     public Point getRightReferencePoint() {
@@ -47,20 +86,37 @@ abstract class DressingRoomClothes {
     }
     public void setRightReferencePoint(Point rightReferencePoint) {
         this.rightReferencePoint = rightReferencePoint;
+        version = versions.incrementAndGet();
     }
 
     /***
      * @return center of a line created by the two reference points
      */
     public Point getReferenceCenter() {
-        return new Point((rightReferencePoint.x + leftReferencePoint.x)/2, (rightReferencePoint.y + leftReferencePoint.y)/2);
+        Anchor center = Placement.referenceCenter(toAnchor(leftReferencePoint), toAnchor(rightReferencePoint));
+        return new Point(center.x, center.y);
+    }
+
+    /***
+     * @param orientation orientation of the frame that the clothing will be drawn into
+     * @return center of a line created by the two reference points in the sprite returned by getSprite(orientation)
+     * (reference points are moved by the crop of the sprite)
+     */
+    Point getReferenceCenter(SensorOrientation orientation) {
+        PreparedSprite sprite = getSprite(orientation);
+        Point center = getReferenceCenter();
+        Point croppedCenter = new Point(center.x - sprite.getBounds().x, center.y - sprite.getBounds().y);
+        return orientation.toSensor(croppedCenter, sprite.getPremultiplied().size());
     }
 
     /***
      * @return the distance between the two reference points
      * */
     public float getReferenceWidth() {
-        Point diff = new Point(rightReferencePoint.x - leftReferencePoint.x, rightReferencePoint.y - leftReferencePoint.y);
-        return Math.round(Math.sqrt(diff.x*diff.x + diff.y*diff.y));
+        return Placement.referenceWidth(toAnchor(leftReferencePoint), toAnchor(rightReferencePoint));
+    }
+
+    private static Anchor toAnchor(Point point) {
+        return new Anchor(point.x, point.y);
     }
 }
@@ -0,0 +1,291 @@
+package cz.upol.inf.dressingroom;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/***
+ * Performance metrics of the dressing room engine. When enabled, latency of every call of the instrumented stages is recorded
+ * into a histogram (percentiles p50, p95 and p99 are reported) and results of face detection are counted. Metrics can be read
+ * with method getSnapshot(), received periodically by a Listener or drawn into a frame with method drawOverlay().
+ * Recording is lock-free and allocation free, when metrics are disabled (default), instrumented stages only check a flag.
+ *
+ * Example:
+ *      DressingRoomMetrics.setEnabled(true);
+ *      DressingRoomMetrics.setListener(snapshot -> Log.d(TAG, snapshot.toString()), 5000);
+ */
+public final class DressingRoomMetrics {
+
+    /*** Instrumented stages, latency of every call is recorded. */
+    public enum Stage {
+        GET_FACE("face"),
+        APPLY_CLASSIFIER("cascade"),
+        WAIST_WIDTH("waist"),
+        WAIST_CALIBRATION("calib"),
+        WAIST_CONVERGENCE("converge"), // time from the first calibration attempt until the waist is calibrated
+        HEAD_ROLL("roll"), // eye detection in the upper half of the face
+        DRAW_GLASSES("glasses"),
+        DRAW_FACE_MASK("mask"),
+        DRAW_TOP("top"),
+        DRAW_OVERLAY("overlay"), // blending of the flattened outfit into a frame
+        BITMAP_TO_MAT("bmp>mat"),
+        MAT_TO_BITMAP("mat>bmp");
+
+        private final String label;
+
+        Stage(String label) {
+            this.label = label;
+        }
+
+        /*** @return short label used in the overlay */
+        public String getLabel() {
+            return label;
+        }
+    }
+
+    /*** Counted events of face detection. */
+    public enum Counter {
+        DETECTION_HIT, // cascade detected a face
+        DETECTION_MISS, // cascade didn't detect any face
+        DETECTION_SKIP, // face wasn't detected, previous face was used instead
+        FACE_TRACKED, // face was tracked instead of detected
+        FACE_LOST, // face disappeared for more than the allowed number of frames
+        SPRITE_HIT, // resized clothing was found in the sprite cache
+        SPRITE_MISS, // clothing had to be resized
+        OVERLAY_REUSED, // flattened outfit from the previous frame was reused
+        OVERLAY_REBUILT, // flattened outfit had to be rebuilt
+        SCRATCH_ALLOCATION // scratch buffer had to be allocated (see ScratchPool), stays flat once frame sizes are stable
+    }
+
+    /*** Receives snapshots of metrics. */
+    public interface Listener {
+        /***
+         * Called from the thread, that recorded the last metric, keep the implementation short.
+         * @param snapshot current metrics
+         */
+        void onMetrics(Snapshot snapshot);
+    }
+
+    /*** Immutable copy of metrics at one moment. */
+    public static final class Snapshot {
+        private static final double[] PERCENTILES = {50, 95, 99};
+        private final Map<Stage, double[]> percentiles = new EnumMap<>(Stage.class); // milliseconds
+        private final Map<Stage, Long> callCounts = new EnumMap<>(Stage.class);
+        private final Map<Counter, Long> counters = new EnumMap<>(Counter.class);
+        private final long scratchHighWaterBytes = DressingRoomMetrics.scratchHighWaterBytes.get();
+
+        private Snapshot() {
+            for (Stage stage : Stage.values()) {
+                LatencyHistogram histogram = histograms.get(stage);
+                double[] values = new double[PERCENTILES.length];
+                for (int i = 0; i < PERCENTILES.length; i++) {
+                    values[i] = histogram.getPercentileNanos(PERCENTILES[i]) / 1e6;
+                }
+                percentiles.put(stage, values);
+                callCounts.put(stage, histogram.getCount());
+            }
+            for (Counter counter : Counter.values()) {
+                counters.put(counter, counterValues.get(counter).get());
+            }
+        }
+
+        /*** @return number of recorded calls of the stage */
+        public long getCallCount(Stage stage) {
+            return callCounts.get(stage);
+        }
+
+        /*** @return median latency of the stage in milliseconds */
+        public double getP50(Stage stage) {
+            return percentiles.get(stage)[0];
+        }
+
+        /*** @return 95th percentile of the stage's latency in milliseconds */
+        public double getP95(Stage stage) {
+            return percentiles.get(stage)[1];
+        }
+
+        /*** @return 99th percentile of the stage's latency in milliseconds */
+        public double getP99(Stage stage) {
+            return percentiles.get(stage)[2];
+        }
+
+        /*** @return number of counted events */
+        public long getCount(Counter counter) {
+            return counters.get(counter);
+        }
+
+        /*** @return the largest number of bytes of scratch buffers used at the same time by one thread */
+        public long getScratchHighWaterBytes() {
+            return scratchHighWaterBytes;
+        }
+
+        /*** @return compact text with one line for every stage that was called and lines with detection and sprite cache counters */
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (String line : toLines()) builder.append(line).append('\n');
+            return builder.toString();
+        }
+
+        private String[] toLines() {
+            int lines = 2;
+            for (Stage stage : Stage.values()) if(getCallCount(stage) > 0) lines++;
+            String[] result = new String[lines];
+            int i = 0;
+            for (Stage stage : Stage.values()) {
+                if(getCallCount(stage) == 0) continue;
+                result[i++] = String.format(Locale.US, "%-8s %6.1f %6.1f %6.1f ms (%d)", stage.getLabel(),
+                        getP50(stage), getP95(stage), getP99(stage), getCallCount(stage));
+            }
+            result[i] = String.format(Locale.US, "hit/miss/skip %d/%d/%d tracked %d lost %d", getCount(Counter.DETECTION_HIT),
+                    getCount(Counter.DETECTION_MISS), getCount(Counter.DETECTION_SKIP), getCount(Counter.FACE_TRACKED), getCount(Counter.FACE_LOST));
+            result[i + 1] = String.format(Locale.US, "sprites hit/miss %d/%d overlay reused/rebuilt %d/%d scratch %d KB (%d)",
+                    getCount(Counter.SPRITE_HIT), getCount(Counter.SPRITE_MISS), getCount(Counter.OVERLAY_REUSED),
+                    getCount(Counter.OVERLAY_REBUILT), getScratchHighWaterBytes() / 1024, getCount(Counter.SCRATCH_ALLOCATION));
+            return result;
+        }
+    }
+
+    private static final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+    private static final Map<Counter, AtomicLong> counterValues = new EnumMap<>(Counter.class);
+    static {
+        for (Stage stage : Stage.values()) histograms.put(stage, new LatencyHistogram());
+        for (Counter counter : Counter.values()) counterValues.put(counter, new AtomicLong());
+    }
+
+    private static final AtomicLong scratchHighWaterBytes = new AtomicLong();
+
+    private static volatile boolean enabled = false;
+    private static volatile Listener listener;
+    private static volatile long listenerIntervalNanos;
+    private static final AtomicLong lastNotification = new AtomicLong();
+
+    private DressingRoomMetrics() {}
+
+    /*** @param enabled true to record metrics, false to stop recording (recorded metrics are kept) */
+    public static void setEnabled(boolean enabled) {
+        DressingRoomMetrics.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /***
+     * Sets listener, that receives snapshots of metrics at most once per interval. Metrics have to be enabled.
+     * @param listener listener, null removes the current listener
+     * @param intervalMillis minimum time between two notifications
+     */
+    public static void setListener(Listener listener, long intervalMillis) {
+        listenerIntervalNanos = intervalMillis * 1_000_000L;
+        lastNotification.set(System.nanoTime());
+        DressingRoomMetrics.listener = listener;
+    }
+
+    /*** @return current metrics */
+    public static Snapshot getSnapshot() {
+        return new Snapshot();
+    }
+
+    /*** Forgets all recorded metrics, except the high-water mark of scratch buffers, which is kept by the pools. */
+    public static void reset() {
+        for (LatencyHistogram histogram : histograms.values()) histogram.reset();
+        for (AtomicLong counter : counterValues.values()) counter.set(0);
+    }
+
+    /***
+     * Marks the beginning of an instrumented call.
+     * @return start time that should be passed to method stop(), or 0 if metrics are disabled
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /***
+     * Records latency of an instrumented call.
+     * @param stage instrumented stage
+     * @param start value returned by method start()
+     */
+    static void stop(Stage stage, long start) {
+        if(start == 0 || !enabled) return;
+        long now = System.nanoTime();
+        histograms.get(stage).record(now - start);
+        notifyListener(now);
+    }
+
+    /*** Records latency measured by the caller, used for latencies spanning more calls (e.g. WAIST_CONVERGENCE). */
+    static void record(Stage stage, long nanos) {
+        if(!enabled) return;
+        histograms.get(stage).record(nanos);
+    }
+
+    /*** Records the high-water mark of one scratch pool, the largest mark of all pools is kept (recorded even if metrics are disabled). */
+    static void recordScratchBytes(long bytes) {
+        long current;
+        do {
+            current = scratchHighWaterBytes.get();
+            if(bytes <= current) return;
+        } while (!scratchHighWaterBytes.compareAndSet(current, bytes));
+    }
+
+    /*** @return stage of drawing of the given clothing type */
+    static Stage drawStage(DressingRoomClothes clothes) {
+        return clothes instanceof Glasses ? Stage.DRAW_GLASSES : clothes instanceof FaceMask ? Stage.DRAW_FACE_MASK : Stage.DRAW_TOP;
+    }
+
+    /*** Counts an event. */
+    static void increment(Counter counter) {
+        if(enabled) counterValues.get(counter).incrementAndGet();
+    }
+
+    private static void notifyListener(long now) {
+        Listener current = listener;
+        if(current == null) return;
+        long last = lastNotification.get();
+        if(now - last >= listenerIntervalNanos && lastNotification.compareAndSet(last, now)) {
+            current.onMetrics(new Snapshot());
+        }
+    }
+
+    private static final double OVERLAY_FONT_SCALE = 0.4;
+    private static final int OVERLAY_LINE_HEIGHT = 14; // pixels
+    private static final int OVERLAY_WIDTH = 330; // pixels
+    private static final Mat overlay = new Mat(); //declaration of Mat variables in the method was causing memory leaks
+    private static final Mat overlayRotated = new Mat();
+    /***
+     * Draws compact overlay with current metrics into the top left corner of the upright frame. Overlay is drawn upright
+     * into a small image, which is rotated to the sensor orientation, so the frame itself isn't rotated.
+     * Method should be called from one thread only (e.g. camera thread).
+     * @param frame frame in sensor orientation (RGBA)
+     * @param orientation orientation of the camera sensor
+     */
+    public static void drawOverlay(Mat frame, SensorOrientation orientation) {
+        String[] lines = new Snapshot().toLines();
+        Size uprightSize = orientation.toUprightSize(frame.size());
+        int width = (int) Math.min(OVERLAY_WIDTH, uprightSize.width);
+        int height = (int) Math.min(OVERLAY_LINE_HEIGHT * lines.length + 4, uprightSize.height);
+        if(width <= 0 || height <= 0) return;
+
+        overlay.create(height, width, CvType.CV_8UC4);
+        overlay.setTo(new Scalar(0, 0, 0, 255));
+        for (int i = 0; i < lines.length; i++) {
+            Imgproc.putText(overlay, lines[i], new Point(2, OVERLAY_LINE_HEIGHT * (i + 1) - 2), Imgproc.FONT_HERSHEY_SIMPLEX,
+                    OVERLAY_FONT_SCALE, new Scalar(255, 255, 255, 255), 1);
+        }
+
+        orientation.rotateToSensor(overlay, overlayRotated);
+        Rect roi = orientation.toSensor(new Rect(0, 0, width, height), frame.size());
+        Mat frameROI = frame.submat(roi);
+        overlayRotated.copyTo(frameROI);
+        frameROI.release();
+    }
+}
@@ -0,0 +1,11 @@
+package cz.upol.inf.dressingroom;
+
+/***
+ * Determines which item is dropped, when an item is offered to a full queue of a TryOnPipeline stage.
+ */
+public enum DropPolicy {
+    /*** The oldest waiting item is dropped and the new item is queued, stage always works with the newest items. */
+    DROP_OLDEST,
+    /*** The new item is dropped, items that are already waiting in the queue are processed first. */
+    DROP_NEWEST
+}
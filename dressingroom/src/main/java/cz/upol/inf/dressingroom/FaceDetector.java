@@ -0,0 +1,50 @@
+package cz.upol.inf.dressingroom;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.List;
+
+import cz.upol.inf.dressingroom.core.FaceLandmarks;
+
+/***
+ * Detects faces in images, used by DressingRoom for standalone images and for frames from the camera. Backend of the detection
+ * is selected by DressingRoom.setFaceDetector(), Haar cascades are used by default. Every backend declares the resolution it works best in,
+ * frames are downscaled accordingly before the detection (see DressingRoom.setDetectionDownscaling()).
+ *
+ * Instances aren't thread-safe, every thread has to use its own instance (see DressingRoom.createFaceDetector()).
+ */
+public interface FaceDetector {
+
+    /*** Available implementations of the detection. */
+    enum Backend {
+        HAAR, // Haar cascades, the most reliable cascade, but the slowest one
+        LBP // LBP cascade, several times faster than Haar cascades (integer features), slightly more false detections
+    }
+
+    /***
+     * Detects faces in the image.
+     * @param image image (RGBA or grayscale), image isn't changed
+     * @param minFaceSize the smallest width of a detected face in pixels
+     * @param maxFaceSize the largest width of a detected face in pixels
+     * @return detected faces in image's coordinates, empty list if no face is detected
+     */
+    List<Rect> detect(Mat image, int minFaceSize, int maxFaceSize);
+
+    /***
+     * Landmarks are kept relative to the face's rectangle, so they stay valid, when the rectangle is moved or scaled (e.g. mapped back
+     * from a downscaled image).
+     * @param index index of the face in the list returned by the last call of detect()
+     * @return landmarks of the face relative to its rectangle (see FaceLandmarks.toRelative()), null if the backend doesn't detect landmarks
+     */
+    FaceLandmarks getLandmarks(int index);
+
+    /*** @return width of the smallest face in pixels, that is detected reliably (size of the cascade's window, resolution of the network) */
+    int getMinFaceSize();
+
+    /*** @return the largest width of the image the detector works in, wider images are downscaled before the detection, 0 if it isn't limited */
+    int getMaxInputWidth();
+
+    /*** @return backend of the detector */
+    Backend getBackend();
+}
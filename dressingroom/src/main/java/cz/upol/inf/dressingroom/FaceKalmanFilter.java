@@ -0,0 +1,148 @@
+package cz.upol.inf.dressingroom;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.video.KalmanFilter;
+
+/***
+ * Constant velocity Kalman filter over the face rectangle (x, y, width, height). Filter smooths small changes in detections, that would
+ * otherwise make the clothes shake, and estimates velocity of the face, so the face can be predicted at the time a frame is displayed.
+ * Detections are used by the compositing one or more frames after they were made, without prediction clothes would lag behind the head.
+ * Filtered face, that differs from the shown face by at most DEADBAND pixels in every coordinate, isn't shown and predictions,
+ * that would move the face by at most DEADBAND pixels, aren't extrapolated, so the face of a still person doesn't change at all.
+ *
+ * Method update() should be called from one thread only (detection thread), method predict() can be called from any thread.
+ */
+class FaceKalmanFilter {
+    private static final int STATE_SIZE = 8; // x, y, width, height and their velocities
+    private static final int MEASUREMENT_SIZE = 4;
+    private static final double MEASUREMENT_NOISE = 10; // pixels, standard deviation of the detection (cascades jitter by several pixels)
+    private static final double ACCELERATION_NOISE = 300; // pixels per second squared, standard deviation of the face's acceleration
+    static final int DEADBAND = 5; // pixels, smaller changes of the face aren't shown, used in stabilization
+    private static final double INITIAL_VELOCITY_NOISE = 500; // pixels per second, uncertainty of the velocity of a new face
+    private static final double MIN_TIME_STEP = 0.001; // seconds
+    private static final double MAX_PREDICTION_TIME = 0.25; // seconds, predictions further ahead are clamped
+
+    private final KalmanFilter filter = new KalmanFilter(STATE_SIZE, MEASUREMENT_SIZE, 0, CvType.CV_64F);
+    private final Mat transition = Mat.eye(STATE_SIZE, STATE_SIZE, CvType.CV_64F); // initialization of Mat variables in methods is causing memory leaks
+    private final Mat processNoise = Mat.zeros(STATE_SIZE, STATE_SIZE, CvType.CV_64F);
+    private final Mat measurement = new Mat(MEASUREMENT_SIZE, 1, CvType.CV_64F);
+    private final double[] stateValues = new double[STATE_SIZE];
+    private boolean initialized = false;
+    private long lastTimestamp;
+
+    private volatile FaceState state; // the latest corrected state, read by predict()
+
+    /*** Immutable copy of the filter's state, so it can be read from other threads. */
+    private static class FaceState {
+        final double[] values;
+        final long timestamp;
+        final Rect shown; // face shown at the time of the state, it's changed only when the filtered face moves by more than DEADBAND
+
+        FaceState(double[] values, long timestamp, Rect shown) {
+            this.values = values.clone();
+            this.timestamp = timestamp;
+            this.shown = shown;
+        }
+    }
+
+    FaceKalmanFilter() {
+        Mat measurementMatrix = Mat.zeros(MEASUREMENT_SIZE, STATE_SIZE, CvType.CV_64F);
+        Mat measurementNoise = Mat.eye(MEASUREMENT_SIZE, MEASUREMENT_SIZE, CvType.CV_64F);
+        for (int i = 0; i < MEASUREMENT_SIZE; i++) {
+            measurementMatrix.put(i, i, 1);
+            measurementNoise.put(i, i, MEASUREMENT_NOISE*MEASUREMENT_NOISE);
+        }
+        filter.set_measurementMatrix(measurementMatrix);
+        filter.set_measurementNoiseCov(measurementNoise);
+        measurementMatrix.release();
+        measurementNoise.release();
+    }
+
+    /***
+     * Corrects the filter with a detected face.
+     * @param face detected face
+     * @param timestamp time of the frame, where the face was detected (System.nanoTime())
+     * @return filtered face at the given time, the previous face if the filtered face differs from it by at most DEADBAND pixels
+     */
+    Rect update(Rect face, long timestamp) {
+        measurement.put(0, 0, face.x, face.y, face.width, face.height);
+
+        if(!initialized) {
+            Mat statePost = Mat.zeros(STATE_SIZE, 1, CvType.CV_64F);
+            statePost.put(0, 0, face.x, face.y, face.width, face.height);
+            Mat errorCovPost = Mat.zeros(STATE_SIZE, STATE_SIZE, CvType.CV_64F);
+            for (int i = 0; i < MEASUREMENT_SIZE; i++) {
+                errorCovPost.put(i, i, MEASUREMENT_NOISE*MEASUREMENT_NOISE);
+                errorCovPost.put(i + MEASUREMENT_SIZE, i + MEASUREMENT_SIZE, INITIAL_VELOCITY_NOISE*INITIAL_VELOCITY_NOISE);
+            }
+            filter.set_statePost(statePost);
+            filter.set_errorCovPost(errorCovPost);
+            statePost.release();
+            errorCovPost.release();
+            initialized = true;
+        } else {
+            double dt = Math.max(MIN_TIME_STEP, (timestamp - lastTimestamp) / 1e9);
+            double q = ACCELERATION_NOISE*ACCELERATION_NOISE;
+            for (int i = 0; i < MEASUREMENT_SIZE; i++) {
+                int v = i + MEASUREMENT_SIZE;
+                transition.put(i, v, dt);
+                // white noise acceleration model
+                processNoise.put(i, i, dt*dt*dt*dt/4*q);
+                processNoise.put(i, v, dt*dt*dt/2*q);
+                processNoise.put(v, i, dt*dt*dt/2*q);
+                processNoise.put(v, v, dt*dt*q);
+            }
+            filter.set_transitionMatrix(transition);
+            filter.set_processNoiseCov(processNoise);
+            filter.predict().release();
+            filter.correct(measurement).release();
+        }
+        lastTimestamp = timestamp;
+
+        Mat statePost = filter.get_statePost();
+        statePost.get(0, 0, stateValues);
+        statePost.release();
+        Rect filtered = toRect(stateValues, 0);
+        FaceState previous = state;
+        Rect shown = previous != null && !isMoreThanDeadband(previous.shown, filtered) ? previous.shown : filtered;
+        state = new FaceState(stateValues, timestamp, shown);
+        return shown.clone();
+    }
+
+    /***
+     * Predicts the face at the given time using the latest corrected state. Prediction is limited to MAX_PREDICTION_TIME
+     * after the latest detection and predictions to the past return the latest corrected state. If the face wouldn't move
+     * by more than DEADBAND pixels, the face returned by the latest update() is returned (velocity of a still face is mostly noise).
+     * @param timestamp time of the frame, where the face is needed (System.nanoTime())
+     * @return predicted face or empty rectangle, if no face is being filtered
+     */
+    Rect predict(long timestamp) {
+        FaceState current = state;
+        if(current == null) return new Rect();
+        double dt = Math.min(MAX_PREDICTION_TIME, Math.max(0, (timestamp - current.timestamp) / 1e9));
+        boolean moving = false;
+        for (int i = 0; i < MEASUREMENT_SIZE; i++) {
+            if(Math.abs(current.values[i + MEASUREMENT_SIZE]*dt) > DEADBAND) moving = true;
+        }
+        return moving ? toRect(current.values, dt) : current.shown.clone();
+    }
+
+    /*** Forgets the filtered face, the next update starts filtering a new face. */
+    void reset() {
+        initialized = false;
+        state = null;
+    }
+
+    private static boolean isMoreThanDeadband(Rect shown, Rect filtered) {
+        return Math.abs(shown.x - filtered.x) > DEADBAND || Math.abs(shown.y - filtered.y) > DEADBAND
+                || Math.abs(shown.width - filtered.width) > DEADBAND || Math.abs(shown.height - filtered.height) > DEADBAND;
+    }
+
+    private static Rect toRect(double[] s, double dt) {
+        double width = Math.max(1, s[2] + s[6]*dt);
+        double height = Math.max(1, s[3] + s[7]*dt);
+        return new Rect((int) Math.round(s[0] + s[4]*dt), (int) Math.round(s[1] + s[5]*dt), (int) Math.round(width), (int) Math.round(height));
+    }
+}
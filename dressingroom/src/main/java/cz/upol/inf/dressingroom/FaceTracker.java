@@ -0,0 +1,211 @@
+package cz.upol.inf.dressingroom;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/***
+ * Tracks a face between two Haar cascade detections using pyramidal Lucas-Kanade optical flow. Corners are found inside the detected face,
+ * they are tracked to the next frame and the face rectangle is moved by median shift of the corners and scaled by median change of their
+ * distances to the center. Tracking is an order of magnitude cheaper than the cascade detection. When too few corners are tracked
+ * successfully, tracking fails and the face should be detected again.
+ *
+ * Frames can be numbered (e.g. by their order from the camera), so the tracker knows about frames, that were dropped before
+ * the tracking (TryOnPipeline drops frames waiting for the detection). After a gap of a few frames, the face moves further,
+ * so optical flow is searched in more levels of the pyramid, after a gap longer than MAX_FRAME_GAP tracking fails.
+ */
+class FaceTracker {
+    private static final int MAX_CORNERS = 40;
+    private static final double CORNER_QUALITY = 0.01;
+    private static final double FACE_MARGIN = 0.15; // percentage of the face's size, corners near the edges of the face are ignored (background)
+    private static final int MIN_TRACKED_CORNERS = 8;
+    private static final double MIN_CONFIDENCE = 0.6; // the smallest fraction of the corners, that has to be tracked successfully
+    private static final float MAX_TRACKING_ERROR = 30;
+    private static final Size WINDOW_SIZE = new Size(15, 15);
+    private static final int PYRAMID_LEVELS = 2;
+    private static final int MAX_FRAME_GAP = 4; // frames, the largest distance between two tracked frames
+    static final long UNKNOWN_FRAME = -1; // frame number of frames, that are expected to be consecutive
+
+    private Mat previousGray = new Mat(); // initialization of Mat variables in methods is causing memory leaks
+    private Mat currentGray = new Mat();
+    private Mat faceSubmat = new Mat();
+    private final MatOfPoint corners = new MatOfPoint();
+    private MatOfPoint2f previousPoints = new MatOfPoint2f();
+    private MatOfPoint2f nextPoints = new MatOfPoint2f();
+    private final MatOfByte status = new MatOfByte();
+    private final MatOfFloat errors = new MatOfFloat();
+
+    private double faceX, faceY, faceWidth, faceHeight; // tracked face with sub-pixel precision
+    private boolean tracking = false;
+    private double confidence = 0;
+    private long previousFrame = UNKNOWN_FRAME;
+
+    /***
+     * Starts tracking of a face, that was detected in the image.
+     * @param image image (RGBA or grayscale) where the face was detected
+     * @param face detected face
+     * @param frame number of the image, UNKNOWN_FRAME if the following images are consecutive frames
+     * @return true if enough corners were found in the face, false if the face can't be tracked
+     */
+    boolean start(Mat image, Rect face, long frame) {
+        toGray(image, previousGray);
+        previousFrame = frame;
+        tracking = false;
+        confidence = 0;
+
+        Rect inner = new Rect((int) Math.round(face.x + face.width*FACE_MARGIN), (int) Math.round(face.y + face.height*FACE_MARGIN),
+                (int) Math.round(face.width*(1 - 2*FACE_MARGIN)), (int) Math.round(face.height*(1 - 2*FACE_MARGIN)));
+        inner = clip(inner, previousGray.cols(), previousGray.rows());
+        if(inner.empty()) return false;
+
+        faceSubmat = previousGray.submat(inner);
+        Imgproc.goodFeaturesToTrack(faceSubmat, corners, MAX_CORNERS, CORNER_QUALITY, Math.max(2, inner.width / 10.0));
+        faceSubmat.release();
+
+        Point[] points = corners.toArray();
+        if(points.length < MIN_TRACKED_CORNERS) return false;
+        for (Point p : points) {
+            p.x += inner.x;
+            p.y += inner.y;
+        }
+        previousPoints.fromArray(points);
+
+        faceX = face.x;
+        faceY = face.y;
+        faceWidth = face.width;
+        faceHeight = face.height;
+        tracking = true;
+        confidence = 1;
+        return true;
+    }
+
+    /***
+     * Moves the tracked face to the given image, which has to be one of the next MAX_FRAME_GAP frames after the previously tracked frame.
+     * @param image next frame (RGBA or grayscale)
+     * @param frame number of the image, UNKNOWN_FRAME if it's the frame following the previously tracked frame
+     * @return tracked face or null if tracking failed (face should be detected again)
+     */
+    Rect track(Mat image, long frame) {
+        if(!tracking) return null;
+        long gap = frame == UNKNOWN_FRAME || previousFrame == UNKNOWN_FRAME ? 1 : frame - previousFrame;
+        if(gap < 1 || gap > MAX_FRAME_GAP) {
+            reset();
+            return null;
+        }
+        previousFrame = frame;
+        toGray(image, currentGray);
+
+        // every level of the pyramid doubles the largest motion, that can be found
+        int levels = PYRAMID_LEVELS + (64 - Long.numberOfLeadingZeros(gap - 1));
+        Video.calcOpticalFlowPyrLK(previousGray, currentGray, previousPoints, nextPoints, status, errors, WINDOW_SIZE, levels);
+        Point[] from = previousPoints.toArray();
+        Point[] to = nextPoints.toArray();
+        byte[] found = status.toArray();
+        float[] error = errors.toArray();
+
+        List<Point> goodFrom = new ArrayList<>(from.length);
+        List<Point> goodTo = new ArrayList<>(from.length);
+        for (int i = 0; i < from.length; i++) {
+            if(found[i] == 1 && error[i] < MAX_TRACKING_ERROR) {
+                goodFrom.add(from[i]);
+                goodTo.add(to[i]);
+            }
+        }
+
+        confidence = from.length == 0 ? 0 : (double) goodTo.size() / from.length;
+        if(goodTo.size() < MIN_TRACKED_CORNERS || confidence < MIN_CONFIDENCE) {
+            tracking = false;
+            return null;
+        }
+
+        // median shift of the corners
+        int count = goodTo.size();
+        double[] dx = new double[count];
+        double[] dy = new double[count];
+        Point centerFrom = new Point(0, 0), centerTo = new Point(0, 0);
+        for (int i = 0; i < count; i++) {
+            dx[i] = goodTo.get(i).x - goodFrom.get(i).x;
+            dy[i] = goodTo.get(i).y - goodFrom.get(i).y;
+            centerFrom.x += goodFrom.get(i).x / count;
+            centerFrom.y += goodFrom.get(i).y / count;
+            centerTo.x += goodTo.get(i).x / count;
+            centerTo.y += goodTo.get(i).y / count;
+        }
+
+        // median change of the distances to the center of the corners
+        double[] ratios = new double[count];
+        int ratioCount = 0;
+        for (int i = 0; i < count; i++) {
+            double distanceFrom = distance(goodFrom.get(i), centerFrom);
+            if(distanceFrom > 1) ratios[ratioCount++] = distance(goodTo.get(i), centerTo) / distanceFrom;
+        }
+        double scale = ratioCount > 0 ? median(ratios, ratioCount) : 1;
+        double shiftX = median(dx, count);
+        double shiftY = median(dy, count);
+
+        // scaling around the center of the face
+        double centerX = faceX + faceWidth/2 + shiftX;
+        double centerY = faceY + faceHeight/2 + shiftY;
+        faceWidth *= scale;
+        faceHeight *= scale;
+        faceX = centerX - faceWidth/2;
+        faceY = centerY - faceHeight/2;
+
+        // current frame becomes the previous one
+        Mat swap = previousGray;
+        previousGray = currentGray;
+        currentGray = swap;
+        previousPoints.fromList(goodTo);
+
+        return new Rect((int) Math.round(faceX), (int) Math.round(faceY), (int) Math.round(faceWidth), (int) Math.round(faceHeight));
+    }
+
+    /*** @return fraction of the corners that were tracked successfully in the last frame, 0 if the face isn't tracked */
+    double getConfidence() {
+        return tracking ? confidence : 0;
+    }
+
+    boolean isTracking() {
+        return tracking;
+    }
+
+    /*** Stops tracking, the face has to be detected and tracking has to be started again. */
+    void reset() {
+        tracking = false;
+        confidence = 0;
+    }
+
+    private static void toGray(Mat image, Mat dst) {
+        if(image.channels() == 1) image.copyTo(dst);
+        else Imgproc.cvtColor(image, dst, Imgproc.COLOR_BGR2GRAY);
+    }
+
+    private static Rect clip(Rect rect, int cols, int rows) {
+        int x = Math.max(0, rect.x);
+        int y = Math.max(0, rect.y);
+        int width = Math.min(cols, rect.x + rect.width) - x;
+        int height = Math.min(rows, rect.y + rect.height) - y;
+        return width > 0 && height > 0 ? new Rect(x, y, width, height) : new Rect();
+    }
+
+    private static double distance(Point a, Point b) {
+        return Math.hypot(a.x - b.x, a.y - b.y);
+    }
+
+    private static double median(double[] values, int count) {
+        double[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        return count % 2 == 1 ? sorted[count/2] : (sorted[count/2 - 1] + sorted[count/2]) / 2;
+    }
+}
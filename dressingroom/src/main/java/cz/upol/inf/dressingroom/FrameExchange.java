@@ -0,0 +1,92 @@
+package cz.upol.inf.dressingroom;
+
+import org.opencv.core.Mat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * Lock-free triple buffer for handing frames from one thread (producer) to another (consumer), for example from the camera thread
+ * to the thread running DressingRoom.getFace(), or composited frames from TryOnPipeline to the camera thread. Exchange holds three Mats, one is always owned by the producer,
+ * one by the consumer and the third one is the latest published frame waiting to be picked up. Ownership is passed by swapping
+ * indexes atomically, so frames are never copied and neither of the threads ever blocks.
+ *
+ * Producer writes the frame directly into getWriteBuffer() (e.g. as the destination of Core.transpose(), or by Mat.assignTo(), which
+ * only shares the pixels of another Mat) and then calls publish().
+ * Consumer calls acquireLatest(), which returns the newest published frame, or null if nothing new was published since the last call.
+ * Frames that were published, but not picked up in time, are overwritten, so the consumer always works with the newest frame.
+ *
+ * WARNING: Exchange is meant for exactly one producer thread and one consumer thread. Mat returned by getWriteBuffer() can only be
+ * used until publish() is called and Mat returned by acquireLatest() can only be used until acquireLatest() is called again.
+ * Neither of them should be released by the caller, use method release() once the exchange isn't needed anymore.
+ */
+public class FrameExchange {
+    private static final int INDEX_MASK = 0b011;
+    private static final int FRESH_FLAG = 0b100; // set when the pending buffer contains a frame, that wasn't picked up yet
+
+    private final Mat[] buffers = new Mat[3];
+    private final AtomicInteger pending = new AtomicInteger(2); // index of the pending buffer and FRESH_FLAG
+    private int writeIndex = 0; // accessed only by the producer
+    private int readIndex = 1; // accessed only by the consumer
+
+    /*** Creates an exchange with three empty Mats, buffers are allocated with the first frames that are written into them. */
+    public FrameExchange() {
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new Mat();
+        }
+    }
+
+    /***
+     * Creates an exchange with three preallocated Mats. When frames with the same size and type are written into them,
+     * no native memory is allocated while the exchange is in use.
+     * @param rows height of the frames
+     * @param cols width of the frames
+     * @param type OpenCV type of the frames (e.g. CvType.CV_8UC4)
+     */
+    public FrameExchange(int rows, int cols, int type) {
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = new Mat(rows, cols, type);
+        }
+    }
+
+    /***
+     * PRODUCER ONLY
+     * @return Mat that the next frame should be written into
+     */
+    public Mat getWriteBuffer() {
+        return buffers[writeIndex];
+    }
+
+    /***
+     * PRODUCER ONLY
+     * Publishes the frame in the write buffer. Previously pending frame, that wasn't picked up, becomes the new write buffer.
+     */
+    public void publish() {
+        writeIndex = pending.getAndSet(writeIndex | FRESH_FLAG) & INDEX_MASK;
+    }
+
+    /***
+     * CONSUMER ONLY
+     * @return true if a frame was published since the last call of acquireLatest()
+     */
+    public boolean hasNewFrame() {
+        return (pending.get() & FRESH_FLAG) != 0;
+    }
+
+    /***
+     * CONSUMER ONLY
+     * Takes the newest published frame. Frame that was previously acquired is given back to the exchange.
+     * @return newest frame or null if no frame was published since the last call
+     */
+    public Mat acquireLatest() {
+        if (!hasNewFrame()) return null;
+        readIndex = pending.getAndSet(readIndex) & INDEX_MASK;
+        return buffers[readIndex];
+    }
+
+    /*** Releases all buffers. Exchange can't be used after calling this method. */
+    public void release() {
+        for (Mat buffer : buffers) {
+            buffer.release();
+        }
+    }
+}
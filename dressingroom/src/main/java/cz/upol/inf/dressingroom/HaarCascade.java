@@ -38,6 +38,7 @@ class HaarCascade {
      * @return list of detected faces
      */
     protected List<Rect> applyClassifier(Mat image, CascadeClassifier classifier) {
+        long start = DressingRoomMetrics.start();
         //preparing image for detection
         Imgproc.cvtColor(image, mImageGray, Imgproc.COLOR_BGR2GRAY);
         Imgproc.equalizeHist(mImageGray, mImageGray);
@@ -49,6 +50,7 @@ class HaarCascade {
         mImageGray.release();
         List<Rect> result = results1.toList();
         results1.release();
+        DressingRoomMetrics.stop(DressingRoomMetrics.Stage.APPLY_CLASSIFIER, start);
         return result;
     }
 
@@ -57,24 +59,60 @@ class HaarCascade {
     /***
      * Method converts image to grayscale, equalizes it's histogram and then applies given classifier to the image with given limits.
      * Results are converted from MatOfRect to a list and are returned.
-     * @param image image
+     * @param image image (if the image is already grayscale, conversion is skipped and the image isn't changed)
      * @param classifier cascade classifier (must be loaded)
      * @param minFaceSize determines the smallest size of the object that can be detected
      * @param maxFaceSize determines the largest size of the object that can be detected
      * @return list of detected faces
      */
     protected List<Rect> applyClassifier(Mat image, CascadeClassifier classifier, int minFaceSize, int maxFaceSize) {
+        long start = DressingRoomMetrics.start();
         //preparing image for detection
-        Imgproc.cvtColor(image, nImageGray, Imgproc.COLOR_BGR2GRAY);
-        Imgproc.equalizeHist(nImageGray, nImageGray);
+        prepareImage(image, nImageGray);
 
         // getting results
-        classifier.detectMultiScale(nImageGray, results2,1.1,3, Objdetect.CASCADE_SCALE_IMAGE,
+        List<Rect> result = detect(nImageGray, classifier, minFaceSize, maxFaceSize);
+
+        nImageGray.release();
+        DressingRoomMetrics.stop(DressingRoomMetrics.Stage.APPLY_CLASSIFIER, start);
+        return result;
+    }
+
+    /***
+     * Same as applyClassifier(Mat, CascadeClassifier, int, int), but the image is already prepared by method prepareImage(), so more classifiers
+     * can be applied to one prepared image (even concurrently, the image is only read).
+     * @param preparedImage grayscale image with equalized histogram
+     * @param classifier cascade classifier (must be loaded)
+     * @param minFaceSize determines the smallest size of the object that can be detected
+     * @param maxFaceSize determines the largest size of the object that can be detected
+     * @return list of detected faces
+     */
+    protected List<Rect> applyClassifierToPrepared(Mat preparedImage, CascadeClassifier classifier, int minFaceSize, int maxFaceSize) {
+        long start = DressingRoomMetrics.start();
+        List<Rect> result = detect(preparedImage, classifier, minFaceSize, maxFaceSize);
+        DressingRoomMetrics.stop(DressingRoomMetrics.Stage.APPLY_CLASSIFIER, start);
+        return result;
+    }
+
+    /***
+     * Converts image to grayscale and equalizes it's histogram, the image is then ready for detection.
+     * @param image image (if the image is already grayscale, conversion is skipped and the image isn't changed)
+     * @param dst destination
+     */
+    protected static void prepareImage(Mat image, Mat dst) {
+        if(image.channels() == 1) {
+            Imgproc.equalizeHist(image, dst);
+        } else {
+            Imgproc.cvtColor(image, dst, Imgproc.COLOR_BGR2GRAY);
+            Imgproc.equalizeHist(dst, dst);
+        }
+    }
+
+    private List<Rect> detect(Mat preparedImage, CascadeClassifier classifier, int minFaceSize, int maxFaceSize) {
+        classifier.detectMultiScale(preparedImage, results2,1.1,3, Objdetect.CASCADE_SCALE_IMAGE,
                 new Size(minFaceSize, minFaceSize),
                 new Size(maxFaceSize, maxFaceSize)
         );
-
-        nImageGray.release();
         List<Rect> result = results2.toList();
         results2.release();
         return result;
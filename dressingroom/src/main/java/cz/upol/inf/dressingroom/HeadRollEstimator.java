@@ -0,0 +1,51 @@
+package cz.upol.inf.dressingroom;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import cz.upol.inf.dressingroom.core.Anchor;
+import cz.upol.inf.dressingroom.core.HeadRoll;
+import cz.upol.inf.dressingroom.core.IntRect;
+
+/***
+ * Estimates the roll of the head in real time. Unlike ImageProcessor.getHeadRotationAngle(), which searches the whole face with default
+ * parameters, the eye cascade is run only on the upper half of the face with eye sizes derived from the face's width (see HeadRoll),
+ * so one estimation costs a fraction of the face detection. Estimations are meant to be run at a low rate on their own thread
+ * (see TryOnPipeline), RollFilter smooths the angle between them.
+ *
+ * Instance should be used from one thread at a time.
+ */
+class HeadRollEstimator {
+    private final HaarCascade haarCascade = new HaarCascade();
+    private Mat eyeRegion = new Mat(); // declaration of Mat variables in the method was causing memory leaks
+
+    /***
+     * @param image upright image (RGBA or grayscale), image isn't changed
+     * @param face face detected in the image
+     * @param eyesClassifier cascade classifier for eye detection (must be loaded)
+     * @return roll in degrees, NaN if the eyes weren't detected
+     */
+    double estimate(Mat image, Rect face, CascadeClassifier eyesClassifier) {
+        IntRect faceRect = new IntRect(face.x, face.y, face.width, face.height);
+        IntRect region = HeadRoll.eyeRegion(faceRect).clipTo(image.cols(), image.rows());
+        int minEyeSize = HeadRoll.minEyeSize(faceRect);
+        if(region.empty() || region.width < minEyeSize || region.height < minEyeSize) return Double.NaN;
+
+        long start = DressingRoomMetrics.start();
+        eyeRegion = image.submat(region.y, region.y + region.height, region.x, region.x + region.width);
+        List<Rect> eyes = haarCascade.applyClassifier(eyeRegion, eyesClassifier, minEyeSize, HeadRoll.maxEyeSize(faceRect));
+        eyeRegion.release();
+
+        List<Anchor> centers = new ArrayList<>(eyes.size());
+        for (Rect eye : eyes) {
+            centers.add(new Anchor(region.x + eye.x + eye.width/2.0, region.y + eye.y + eye.height/2.0));
+        }
+        double roll = HeadRoll.estimate(centers, faceRect);
+        DressingRoomMetrics.stop(DressingRoomMetrics.Stage.HEAD_ROLL, start);
+        return roll;
+    }
+}
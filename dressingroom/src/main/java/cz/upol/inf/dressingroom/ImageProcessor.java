@@ -5,7 +5,6 @@ import android.util.Log;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
-import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.objdetect.CascadeClassifier;
 
@@ -107,44 +106,4 @@ class ImageProcessor {
             return new Rect(result.x + faceROI.x, result.y + faceROI.y, result.width, result.height);
         }
     }
-
-    private  Mat rRotationMatrix = new Mat(); //declaration of Mat variables in methods is causing memory leaks
-    /***
-     * Rotates given image by an angle and saves it to dst. Don't use for rotating image back, dimensions of the image will be wrong.
-     * @param image source
-     * @param dst destination
-     * @param angle rotation angle
-     */
-    protected void rotateImage(Mat image, Mat dst, double angle) {
-        Point center = new Point(image.width()/2.0, image.height()/2.0);
-        rRotationMatrix = Imgproc.getRotationMatrix2D(center, angle, 1.0);
-
-        //https://www.geeksforgeeks.org/rotate-image-without-cutting-off-sides-using-python-opencv/
-        double cos = Math.abs(rRotationMatrix.get(0, 0)[0]);
-        double sin = Math.abs(rRotationMatrix.get(0, 1)[0]);
-        int newHeight = (int) ((image.width() * sin) + (image.height() * cos));
-        int newWidth = (int) ((image.width() * cos) + (image.height() * sin));
-
-        // from the article, but adjusted to center of image being at (clothes.width()/2, 0)
-        rRotationMatrix.put(0, 2, rRotationMatrix.get(0, 2)[0] + ((newWidth / 2.0) - center.x));
-        rRotationMatrix.put(1, 2, rRotationMatrix.get(1, 2)[0] + ((newHeight / 2.0) - center.y));
-
-        //rotation
-        Imgproc.warpAffine(image, dst, rRotationMatrix, new Size(newWidth, newHeight));
-        rRotationMatrix.release();
-    }
-
-    private Mat rbRotationMatrix = new Mat(); //declaration of Mat variables in methods is causing memory leaks
-    /***
-     * Method is used to rotates image back after method rotateImage() was used.
-     * @param image rotated image
-     * @param dst destination
-     * @param angle opposite value of the angle that was used in rotateImage()
-     */
-    protected void rotateImageBack(Mat image, Mat dst, double angle) {
-        Point center = new Point(image.width()/2.0, image.height()/2.0);
-        rbRotationMatrix = Imgproc.getRotationMatrix2D(center, angle, 1.0);
-        Imgproc.warpAffine(image, dst, rbRotationMatrix, image.size());
-        rbRotationMatrix.release();
-    }
 }
\ No newline at end of file
@@ -0,0 +1,96 @@
+package cz.upol.inf.dressingroom;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/***
+ * Lock-free histogram of latencies with logarithmic buckets. Every octave (doubling of the latency) is split into SUB_BUCKETS buckets,
+ * so percentiles are estimated with relative error under 5 %. Buckets cover latencies from 1 microsecond to about 70 seconds.
+ * Recording is allocation free and can be done from any thread.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKETS = 8; // buckets per octave
+    private static final int OCTAVES = 26; // 1 us * 2^26 = 67 s
+    private static final int BUCKET_COUNT = OCTAVES * SUB_BUCKETS + 1;
+    private static final double NANOS_PER_MICRO = 1000;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /***
+     * Records one latency.
+     * @param nanos latency in nanoseconds
+     */
+    void record(long nanos) {
+        if(nanos < 0) nanos = 0;
+        buckets.incrementAndGet(bucketIndex(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max;
+        do {
+            max = maxNanos.get();
+        } while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+    }
+
+    /*** @return number of recorded latencies */
+    long getCount() {
+        return count.get();
+    }
+
+    /*** @return mean of recorded latencies in nanoseconds, 0 if nothing was recorded */
+    double getMeanNanos() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) totalNanos.get() / n;
+    }
+
+    /*** @return the largest recorded latency in nanoseconds */
+    long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /***
+     * Estimates a percentile of recorded latencies. Latencies in a bucket are represented by the geometric middle of the bucket.
+     * @param percentile percentile between 0 and 100
+     * @return latency in nanoseconds, 0 if nothing was recorded
+     */
+    double getPercentileNanos(double percentile) {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if(total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if(seen >= rank) return Math.min(bucketMiddle(i), maxNanos.get());
+        }
+        return maxNanos.get();
+    }
+
+    /*** Forgets all recorded latencies. */
+    void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) buckets.set(i, 0);
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    static int bucketIndex(long nanos) {
+        double micros = nanos / NANOS_PER_MICRO;
+        if(micros < 1) return 0;
+        int index = 1 + (int) (Math.log(micros) / Math.log(2) * SUB_BUCKETS);
+        return Math.min(BUCKET_COUNT - 1, index);
+    }
+
+    private static double bucketMiddle(int index) {
+        if(index == 0) return NANOS_PER_MICRO / 2;
+        // bucket i covers [2^((i-1)/SUB_BUCKETS), 2^(i/SUB_BUCKETS)) microseconds
+        return NANOS_PER_MICRO * Math.pow(2, (index - 0.5) / SUB_BUCKETS);
+    }
+}
@@ -0,0 +1,143 @@
+package cz.upol.inf.dressingroom;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import cz.upol.inf.dressingroom.core.AlphaCompositor;
+
+/***
+ * All clothes of an outfit flattened into one premultiplied RGBA layer. The layer covers only the bounding box of the clothes and
+ * it is rebuilt only when the clothes (their order, source images or reference points), the size of the face, the waist, the roll of the head
+ * (quantized, see HeadRoll), the orientation or the size of the frame change (see OverlayKey). Otherwise every frame needs only one blend
+ * of the layer instead of resizing and blending every clothing. When only the position of the face changes (predicted face moves with
+ * every frame), the layer is blended moved with the face.
+ *
+ * Instance should be used from one thread at a time.
+ */
+class OutfitOverlay {
+    /*** One clothing of the outfit with its scale, reference point on the body and rotation around the reference point. */
+    static final class Layer {
+        final DressingRoomClothes clothes;
+        final double scale;
+        final Point uprightCenter;
+        final double roll;
+
+        Layer(DressingRoomClothes clothes, double scale, Point uprightCenter, double roll) {
+            this.clothes = clothes;
+            this.scale = scale;
+            this.uprightCenter = uprightCenter;
+            this.roll = roll;
+        }
+    }
+
+    private final SpriteCache spriteCache;
+    private final SpriteCompositor compositor;
+
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(0);
+    private Mat layerMat = new Mat(); // wraps the buffer, declaration of Mat variables in the method was causing memory leaks
+    private Rect bounds = new Rect(); // position of the layer in the frame, that it was built for, empty if no clothing is visible
+    private final OverlayKey key = new OverlayKey();
+
+    OutfitOverlay(SpriteCache spriteCache, SpriteCompositor compositor) {
+        this.spriteCache = spriteCache;
+        this.compositor = compositor;
+    }
+
+    /***
+     * Checks whether the layer was built for the same outfit, size of the face, waist, roll and image (see OverlayKey).
+     * @return true if the layer can be blended without rebuilding
+     */
+    boolean isCurrent(Mat image, Outfit outfit, Rect face, double waist, double roll, SensorOrientation orientation) {
+        return key.matches(image.cols(), image.rows(), outfit, face, waist, roll, orientation);
+    }
+
+    /***
+     * Rebuilds the layer: clothes are resized (SpriteCache), rotated clothes are warped (SpriteCompositor) and all are blended
+     * into the layer in the order of the layers.
+     * @param image frame, that the layer will be blended into (only its size is used)
+     * @param outfit outfit, that the layers were created from
+     * @param face face, that the layers were placed by
+     * @param waist waist, that the layers were placed by
+     * @param roll roll of the head, that the layers were placed by
+     * @param orientation orientation of the frame
+     * @param layers clothes of the outfit in the order face masks, glasses and tops
+     */
+    void rebuild(Mat image, Outfit outfit, Rect face, double waist, double roll, SensorOrientation orientation, List<Layer> layers) {
+        // placements are calculated first, so the size of the layer is known before the clothes are resized
+        List<ClothingPlacement> placements = new ArrayList<>(layers.size());
+        List<Layer> placedLayers = new ArrayList<>(layers.size());
+        int left = Integer.MAX_VALUE, top = Integer.MAX_VALUE, right = Integer.MIN_VALUE, bottom = Integer.MIN_VALUE;
+        for (Layer layer : layers) {
+            ClothingPlacement placement = ClothingPlacement.place(layer.clothes, layer.scale, layer.uprightCenter, layer.roll, orientation, image.size());
+            if(placement == null) continue;
+            placements.add(placement);
+            placedLayers.add(layer);
+            left = Math.min(left, placement.imageRoi.x);
+            top = Math.min(top, placement.imageRoi.y);
+            right = Math.max(right, placement.imageRoi.x + placement.imageRoi.width);
+            bottom = Math.max(bottom, placement.imageRoi.y + placement.imageRoi.height);
+        }
+        bounds = placements.isEmpty() ? new Rect() : new Rect(left, top, right - left, bottom - top);
+
+        if(!bounds.empty()) {
+            prepareLayer(bounds.height, bounds.width);
+            layerMat.setTo(Scalar.all(0)); // transparent
+            int layerStride = bounds.width * AlphaCompositor.CHANNELS;
+            for (int i = 0; i < placements.size(); i++) {
+                ClothingPlacement placement = placements.get(i);
+                long start = DressingRoomMetrics.start();
+                SpriteCache.ScaledSprite sprite = spriteCache.getResized(placement.sprite, placement.scale);
+                ByteBuffer src;
+                int srcOffset, srcStride;
+                if(placement.warp != null) {
+                    src = compositor.warp(sprite, placement.warp);
+                    srcOffset = 0;
+                    srcStride = placement.imageRoi.width * AlphaCompositor.CHANNELS;
+                } else {
+                    src = sprite.getBuffer();
+                    srcStride = sprite.getWidth() * AlphaCompositor.CHANNELS;
+                    srcOffset = placement.spriteRoi.y * srcStride + placement.spriteRoi.x * AlphaCompositor.CHANNELS;
+                }
+                // source over is the same for premultiplied destination, so clothes can be flattened with the same compositor
+                AlphaCompositor.blend(src, srcOffset, srcStride,
+                        buffer, (placement.imageRoi.y - bounds.y) * layerStride + (placement.imageRoi.x - bounds.x) * AlphaCompositor.CHANNELS, layerStride,
+                        placement.imageRoi.width, placement.imageRoi.height);
+                DressingRoomMetrics.stop(DressingRoomMetrics.drawStage(placedLayers.get(i).clothes), start);
+            }
+        }
+
+        key.save(image.cols(), image.rows(), outfit, face, waist, roll, orientation, bounds);
+    }
+
+    /***
+     * Blends the layer into the image.
+     * @param image RGBA frame in the orientation, that the layer was built for
+     * @param face face in the frame, the layer is moved by its offset from the face, that the layer was built for
+     */
+    void blendInto(Mat image, Rect face) {
+        if(bounds.empty()) return;
+        long start = DressingRoomMetrics.start();
+        compositor.blend(buffer, bounds.width, new Rect(0, 0, bounds.width, bounds.height), image, key.boundsFor(face));
+        DressingRoomMetrics.stop(DressingRoomMetrics.Stage.DRAW_OVERLAY, start);
+    }
+
+    /*** Forgets the layer, it will be rebuilt before the next blend. */
+    void invalidate() {
+        key.invalidate();
+    }
+
+    private void prepareLayer(int rows, int cols) {
+        if(layerMat.rows() == rows && layerMat.cols() == cols) return;
+        int bytes = rows * cols * AlphaCompositor.CHANNELS;
+        if(buffer.capacity() < bytes) buffer = ByteBuffer.allocateDirect(bytes + bytes / 2); // room for slightly larger layers
+        layerMat.release();
+        layerMat = new Mat(rows, cols, CvType.CV_8UC4, buffer);
+    }
+}
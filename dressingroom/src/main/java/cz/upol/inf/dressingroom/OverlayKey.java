@@ -0,0 +1,115 @@
+package cz.upol.inf.dressingroom;
+
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+/***
+ * Key of the flattened outfit (see OutfitOverlay): clothes (their order, source images and reference points), the face, the waist,
+ * the roll of the head (quantized, see HeadRoll), the orientation and the size of the frame, that the layer was built for.
+ * Face predicted for every frame moves by a few pixels even if the head moves smoothly (prediction is rounded and follows
+ * the velocity of the face), so the face is matched only by its size (up to FACE_SIZE_TOLERANCE) and a face at a different
+ * position reuses the layer moved by the face's offset. Clothes are placed relative to the face, so the moved layer is the same layer,
+ * that would be built for the moved face.
+ * Layer, that touches the border of the frame, could be clipped by it, so it's reused only for the same position of the face.
+ *
+ * Key doesn't use OpenCV's native memory, so it can be checked in every frame.
+ */
+class OverlayKey {
+    static final int FACE_SIZE_TOLERANCE = 1; // pixels, faces, whose sizes differ by at most this value, use the same layer
+
+    private boolean valid = false;
+    private DressingRoomClothes[] garments = new DressingRoomClothes[0];
+    private long[] versions = new long[0];
+    private int garmentCount = 0;
+    private final Rect face = new Rect(); // upright face, that the layer was built for
+    private final Rect bounds = new Rect(); // position of the layer in the frame (sensor orientation), empty if no clothing is visible
+    private double waist;
+    private double roll;
+    private SensorOrientation orientation;
+    private int imageWidth, imageHeight;
+
+    /***
+     * Checks whether the layer was built for the same outfit, face size, waist, roll and frame and whether the layer can be moved
+     * to the given face. Method doesn't allocate any memory.
+     * @param imageWidth width of the frame in sensor orientation
+     * @param imageHeight height of the frame in sensor orientation
+     * @return true if the layer can be blended at boundsFor(face) without rebuilding
+     */
+    boolean matches(int imageWidth, int imageHeight, Outfit outfit, Rect face, double waist, double roll, SensorOrientation orientation) {
+        if(!valid || orientation != this.orientation || imageWidth != this.imageWidth || imageHeight != this.imageHeight) return false;
+        if(waist != this.waist || roll != this.roll) return false;
+        if(Math.abs(face.width - this.face.width) > FACE_SIZE_TOLERANCE || Math.abs(face.height - this.face.height) > FACE_SIZE_TOLERANCE) return false;
+        if(!canMoveTo(face)) return false;
+        int count = 0;
+        for (DressingRoomClothes clothes : outfit.getFaceMasks()) if(!matches(count++, clothes)) return false;
+        for (DressingRoomClothes clothes : outfit.getGlasses()) if(!matches(count++, clothes)) return false;
+        for (DressingRoomClothes clothes : outfit.getTops()) if(!matches(count++, clothes)) return false;
+        return count == garmentCount;
+    }
+
+    private boolean matches(int index, DressingRoomClothes clothes) {
+        return index < garmentCount && garments[index] == clothes && versions[index] == clothes.getVersion();
+    }
+
+    private boolean canMoveTo(Rect face) {
+        if(face.x == this.face.x && face.y == this.face.y) return true;
+        // invisible clothes could become visible and clipped layer would miss its clipped part
+        if(bounds.empty() || bounds.x <= 0 || bounds.y <= 0 || bounds.x + bounds.width >= imageWidth || bounds.y + bounds.height >= imageHeight) return false;
+        Rect moved = boundsFor(face);
+        return moved.x >= 0 && moved.y >= 0 && moved.x + moved.width <= imageWidth && moved.y + moved.height <= imageHeight;
+    }
+
+    /***
+     * @param face upright face, that matches the key (see matches())
+     * @return position of the layer in the frame for the given face, bounds of the layer moved by the face's offset
+     */
+    Rect boundsFor(Rect face) {
+        Size sensorSize = new Size(imageWidth, imageHeight);
+        Point origin = orientation.toSensor(new Point(0, 0), sensorSize);
+        Point offset = orientation.toSensor(new Point(face.x - this.face.x, face.y - this.face.y), sensorSize);
+        return new Rect(bounds.x + (int) Math.round(offset.x - origin.x), bounds.y + (int) Math.round(offset.y - origin.y), bounds.width, bounds.height);
+    }
+
+    /***
+     * Saves the key of a rebuilt layer.
+     * @param bounds position of the layer in the frame (sensor orientation), empty if no clothing is visible
+     */
+    void save(int imageWidth, int imageHeight, Outfit outfit, Rect face, double waist, double roll, SensorOrientation orientation, Rect bounds) {
+        int count = outfit.getFaceMasks().size() + outfit.getGlasses().size() + outfit.getTops().size();
+        if(garments.length < count) {
+            garments = new DressingRoomClothes[count];
+            versions = new long[count];
+        }
+        garmentCount = 0;
+        for (DressingRoomClothes clothes : outfit.getFaceMasks()) saveGarment(clothes);
+        for (DressingRoomClothes clothes : outfit.getGlasses()) saveGarment(clothes);
+        for (DressingRoomClothes clothes : outfit.getTops()) saveGarment(clothes);
+        set(this.face, face);
+        set(this.bounds, bounds);
+        this.waist = waist;
+        this.roll = roll;
+        this.orientation = orientation;
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        valid = true;
+    }
+
+    private void saveGarment(DressingRoomClothes clothes) {
+        garments[garmentCount] = clothes;
+        versions[garmentCount] = clothes.getVersion();
+        garmentCount++;
+    }
+
+    private static void set(Rect dst, Rect src) {
+        dst.x = src.x;
+        dst.y = src.y;
+        dst.width = src.width;
+        dst.height = src.height;
+    }
+
+    /*** Forgets the key, nothing matches it until it's saved again. */
+    void invalidate() {
+        valid = false;
+    }
+}
@@ -0,0 +1,140 @@
+package cz.upol.inf.dressingroom;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/***
+ * One stage of the TryOnPipeline. Stage has its own single thread executor and a bounded queue. Offering an item never blocks,
+ * when the queue is full, an item is dropped based on the DropPolicy and given to the drop handler (so the resources can be released).
+ * Items are processed one by one in the order they were queued.
+ * @param <T> type of processed items
+ */
+class PipelineStage<T> {
+    private final String name;
+    private final ArrayDeque<T> queue;
+    private final int capacity;
+    private final DropPolicy dropPolicy;
+    private final Consumer<T> task;
+    private final Consumer<T> dropHandler;
+    private final ExecutorService executor;
+    private final AtomicLong droppedCounter = new AtomicLong();
+    private boolean draining = false; // guarded by queue
+    private boolean stopped = false; // guarded by queue
+
+    /***
+     * @param name name of the stage, used as the name of the stage's thread
+     * @param capacity maximum number of items waiting in the queue (at least 1)
+     * @param dropPolicy policy used, when the queue is full
+     * @param task processes an item, runs on the stage's thread
+     * @param dropHandler called with items that were dropped, runs on the thread that offered the item
+     */
+    PipelineStage(String name, int capacity, DropPolicy dropPolicy, Consumer<T> task, Consumer<T> dropHandler) {
+        if(capacity < 1) throw new IllegalArgumentException("capacity of the stage " + name + " must be at least 1");
+        this.name = name;
+        this.capacity = capacity;
+        this.queue = new ArrayDeque<>(capacity);
+        this.dropPolicy = dropPolicy;
+        this.task = task;
+        this.dropHandler = dropHandler;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, name));
+    }
+
+    /***
+     * Queues the item for processing. If the queue is full, an item is dropped based on the drop policy.
+     * @param item item to be processed
+     * @return false if the offered item was dropped, true otherwise
+     */
+    boolean offer(T item) {
+        T dropped = null;
+        boolean schedule = false;
+        synchronized (queue) {
+            if(stopped) dropped = item;
+            else if(queue.size() >= capacity) {
+                if(dropPolicy == DropPolicy.DROP_OLDEST) {
+                    dropped = queue.pollFirst();
+                    queue.addLast(item);
+                } else dropped = item;
+            } else queue.addLast(item);
+
+            if(!draining && dropped != item) {
+                draining = true;
+                schedule = true;
+            }
+        }
+
+        if(dropped != null) {
+            droppedCounter.incrementAndGet();
+            dropHandler.accept(dropped);
+        }
+        if(schedule) executor.execute(this::drain);
+        return dropped != item;
+    }
+
+    private void drain() {
+        while (true) {
+            T item;
+            synchronized (queue) {
+                item = queue.pollFirst();
+                if(item == null) {
+                    draining = false;
+                    return;
+                }
+            }
+            task.accept(item);
+        }
+    }
+
+    /*** @return number of items, that were dropped by this stage */
+    long getDroppedCount() {
+        return droppedCounter.get();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    /***
+     * Stops accepting new tasks and waits for the item that is currently being processed. Items waiting in the queue are dropped.
+     * Scratch buffers of the stage's thread are released, once the last item is processed (see ScratchPool).
+     * @param timeoutMillis maximum time to wait for the stage's thread to finish
+     * @return true if the stage's thread finished, false if it's still processing an item after the timeout
+     */
+    boolean shutdown(long timeoutMillis) {
+        synchronized (queue) {
+            stopped = true;
+        }
+        releaseQueued();
+        if(!executor.isShutdown()) executor.execute(() -> ScratchPool.forCurrentThread().clear()); // runs after the item that is being processed
+        executor.shutdown();
+        try {
+            return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return executor.isTerminated();
+        }
+    }
+
+    /***
+     * Gives all items waiting in the queue to the drop handler.
+     * @return number of released items
+     */
+    int releaseQueued() {
+        int released = 0;
+        synchronized (queue) {
+            T item;
+            while ((item = queue.pollFirst()) != null) {
+                dropHandler.accept(item);
+                released++;
+            }
+        }
+        return released;
+    }
+}
@@ -0,0 +1,163 @@
+package cz.upol.inf.dressingroom;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/***
+ * Pool of temporary Mats (scratch buffers) for image processing steps, that run in every frame (e.g. edge detection in the hip regions).
+ * Mats are kept by their size and type and reused across calls, so native buffers are allocated only while the sizes change and
+ * steady-state frames don't allocate any. Mats given to OpenCV as outputs can be reallocated by OpenCV, they are returned to the slot
+ * they were acquired from. Structuring elements are cached by their shape and size.
+ *
+ * Every thread has its own pool (forCurrentThread()), a pool isn't thread-safe and it's only used by the thread, that owns it.
+ * A Mat acquired from the pool isn't given to any other caller until it's released, so it's never shared between threads,
+ * as long as the caller doesn't pass it to another thread (Mat has to be released by the thread, that acquired it).
+ * Pool covers only the Mats acquired from it, other buffers kept between calls (e.g. edge maps of the waist calibration) have to be owned
+ * by the caller (see WaistSession). Buffers are released by clear() at the end of the session of the owning thread: when a PipelineStage
+ * shuts down, when WaistCalibrationWorker calibrated the waist and after the waist of a standalone photo was measured.
+ * Pool records its high-water mark (the largest number of bytes acquired at the same time) into DressingRoomMetrics. Mats acquired
+ * for outputs of unknown size are counted with the size they had, when they were acquired, and with the size OpenCV gave them, when they are released.
+ */
+class ScratchPool {
+    private static final ThreadLocal<ScratchPool> POOLS = ThreadLocal.withInitial(ScratchPool::new);
+
+    /*** Size and type of pooled Mats. */
+    private static final class Key {
+        final int rows, cols, type;
+
+        Key(int rows, int cols, int type) {
+            this.rows = rows;
+            this.cols = cols;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return rows == key.rows && cols == key.cols && type == key.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return (rows * 31 + cols) * 31 + type;
+        }
+    }
+
+    private final Map<Key, ArrayDeque<Mat>> free = new HashMap<>();
+    private final Map<Mat, Key> acquired = new IdentityHashMap<>();
+    private final Map<Mat, Long> acquiredBytes = new IdentityHashMap<>(); // bytes counted for the acquired Mats
+    private final Map<Key, Mat> kernels = new HashMap<>(); // key type is the shape of the kernel
+    private long bytesInUse = 0;
+    private long highWaterBytes = 0;
+
+    /*** @return pool of the calling thread */
+    static ScratchPool forCurrentThread() {
+        return POOLS.get();
+    }
+
+    /***
+     * Returns a Mat of the given size and type, content of the Mat is undefined. Mat has to be returned by method release().
+     * Size 0 x 0 returns a Mat for outputs of unknown size (e.g. hierarchy of contours), which keeps the size it had when it was released.
+     * @param rows number of rows
+     * @param cols number of columns
+     * @param type type of the Mat (CvType)
+     * @return pooled Mat
+     */
+    Mat acquire(int rows, int cols, int type) {
+        Key key = new Key(rows, cols, type);
+        ArrayDeque<Mat> mats = free.get(key);
+        Mat mat = mats == null ? null : mats.pollFirst();
+        if(mat == null) {
+            mat = new Mat(rows, cols, type);
+            DressingRoomMetrics.increment(DressingRoomMetrics.Counter.SCRATCH_ALLOCATION);
+        } else if(rows * cols > 0 && (mat.rows() != rows || mat.cols() != cols || mat.type() != type)) {
+            mat.create(rows, cols, type); // reallocated by OpenCV while it was used
+        }
+        acquired.put(mat, key);
+        long bytes = rows * cols > 0 ? bytes(key) : bytes(mat); // Mat for outputs of unknown size keeps its size from the previous use
+        acquiredBytes.put(mat, bytes);
+        addBytesInUse(bytes);
+        return mat;
+    }
+
+    /***
+     * Returns a Mat of the given size, that is used as an output of OpenCV (it is reallocated by OpenCV when the size doesn't match).
+     * @see #acquire(int, int, int)
+     */
+    Mat acquire(Size size, int type) {
+        return acquire((int) size.height, (int) size.width, type);
+    }
+
+    /***
+     * Returns the Mat to the pool, Mat mustn't be used afterward.
+     * @param mat Mat acquired from this pool
+     */
+    void release(Mat mat) {
+        Key key = acquired.remove(mat);
+        if(key == null) throw new IllegalArgumentException("Mat wasn't acquired from this pool");
+        long counted = acquiredBytes.remove(mat);
+        long bytes = bytes(mat);
+        if(bytes > counted) { // output reallocated by OpenCV while it was used
+            addBytesInUse(bytes - counted);
+            counted = bytes;
+        }
+        bytesInUse -= counted;
+        ArrayDeque<Mat> mats = free.get(key);
+        if(mats == null) {
+            mats = new ArrayDeque<>();
+            free.put(key, mats);
+        }
+        mats.addFirst(mat);
+    }
+
+    private void addBytesInUse(long bytes) {
+        bytesInUse += bytes;
+        if(bytesInUse > highWaterBytes) {
+            highWaterBytes = bytesInUse;
+            DressingRoomMetrics.recordScratchBytes(highWaterBytes);
+        }
+    }
+
+    /*** @return bytes of a Mat of the key's size */
+    private static long bytes(Key key) {
+        return (long) key.rows * key.cols * CvType.ELEM_SIZE(key.type);
+    }
+
+    /*** @return bytes of the Mat's current size */
+    private static long bytes(Mat mat) {
+        return mat.total() * mat.elemSize();
+    }
+
+    /***
+     * @param shape shape of the structuring element (e.g. Imgproc.MORPH_RECT)
+     * @param size size of the structuring element
+     * @return cached structuring element, mustn't be changed nor released by the caller
+     */
+    Mat kernel(int shape, Size size) {
+        Key key = new Key((int) size.height, (int) size.width, shape);
+        Mat kernel = kernels.get(key);
+        if(kernel == null) {
+            kernel = Imgproc.getStructuringElement(shape, size);
+            kernels.put(key, kernel);
+        }
+        return kernel;
+    }
+
+    /*** Releases all native buffers of Mats, that aren't acquired, and all cached structuring elements. */
+    void clear() {
+        for (ArrayDeque<Mat> mats : free.values()) {
+            for (Mat mat : mats) mat.release();
+        }
+        free.clear();
+        for (Mat kernel : kernels.values()) kernel.release();
+        kernels.clear();
+    }
+}
@@ -0,0 +1,138 @@
+package cz.upol.inf.dressingroom;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+/***
+ * Orientation of the camera sensor, describes how the frame from the camera has to be rotated (clockwise) to be upright.
+ * For example camera in landscape mode held in portrait mode gives frames that need to be rotated by 90 degrees
+ * (the same as Core.transpose() followed by Core.flip() with flipCode 1).
+ *
+ * Instead of rotating every frame, coordinates are mapped between the sensor frame and the upright frame. Upright coordinates
+ * are used for detection results and placement of the clothes, sensor coordinates are used for drawing into the frame.
+ * Coordinates are continuous, so a pixel (x, y) is the square between (x, y) and (x+1, y+1).
+ */
+public enum SensorOrientation {
+    ROTATION_0(0),
+    ROTATION_90(90),
+    ROTATION_180(180),
+    ROTATION_270(270);
+
+    private final int degrees;
+
+    SensorOrientation(int degrees) {
+        this.degrees = degrees;
+    }
+
+    /*** @return clockwise rotation in degrees, that makes the sensor frame upright */
+    public int getDegrees() {
+        return degrees;
+    }
+
+    /***
+     * @param degrees clockwise rotation in degrees, must be a multiple of 90
+     * @return orientation with given rotation
+     */
+    public static SensorOrientation fromDegrees(int degrees) {
+        switch (((degrees % 360) + 360) % 360) {
+            case 0: return ROTATION_0;
+            case 90: return ROTATION_90;
+            case 180: return ROTATION_180;
+            case 270: return ROTATION_270;
+            default: throw new IllegalArgumentException("rotation must be a multiple of 90 degrees, was " + degrees);
+        }
+    }
+
+    /*** @return true if the width and height of the frame are swapped in the upright frame */
+    public boolean swapsDimensions() {
+        return this == ROTATION_90 || this == ROTATION_270;
+    }
+
+    /***
+     * @param sensorSize size of the frame in sensor orientation
+     * @return size of the upright frame
+     */
+    public Size toUprightSize(Size sensorSize) {
+        return swapsDimensions() ? new Size(sensorSize.height, sensorSize.width) : sensorSize.clone();
+    }
+
+    /***
+     * @param point point in sensor coordinates
+     * @param sensorSize size of the frame in sensor orientation
+     * @return point in upright coordinates
+     */
+    public Point toUpright(Point point, Size sensorSize) {
+        switch (this) {
+            case ROTATION_90: return new Point(sensorSize.height - point.y, point.x);
+            case ROTATION_180: return new Point(sensorSize.width - point.x, sensorSize.height - point.y);
+            case ROTATION_270: return new Point(point.y, sensorSize.width - point.x);
+            default: return point.clone();
+        }
+    }
+
+    /***
+     * @param point point in upright coordinates
+     * @param sensorSize size of the frame in sensor orientation
+     * @return point in sensor coordinates
+     */
+    public Point toSensor(Point point, Size sensorSize) {
+        switch (this) {
+            case ROTATION_90: return new Point(point.y, sensorSize.height - point.x);
+            case ROTATION_180: return new Point(sensorSize.width - point.x, sensorSize.height - point.y);
+            case ROTATION_270: return new Point(sensorSize.width - point.y, point.x);
+            default: return point.clone();
+        }
+    }
+
+    /***
+     * @param rect rectangle in sensor coordinates
+     * @param sensorSize size of the frame in sensor orientation
+     * @return rectangle in upright coordinates
+     */
+    public Rect toUpright(Rect rect, Size sensorSize) {
+        if(this == ROTATION_0 || rect.empty()) return rect.clone();
+        return new Rect(toUpright(rect.tl(), sensorSize), toUpright(rect.br(), sensorSize));
+    }
+
+    /***
+     * @param rect rectangle in upright coordinates
+     * @param sensorSize size of the frame in sensor orientation
+     * @return rectangle in sensor coordinates
+     */
+    public Rect toSensor(Rect rect, Size sensorSize) {
+        if(this == ROTATION_0 || rect.empty()) return rect.clone();
+        return new Rect(toSensor(rect.tl(), sensorSize), toSensor(rect.br(), sensorSize));
+    }
+
+    /***
+     * Rotates image in sensor orientation to upright orientation. Should be used only when it can't be avoided
+     * (e.g. for small or single channel images), otherwise coordinates should be mapped instead.
+     * @param sensorImage image in sensor orientation
+     * @param dst destination
+     */
+    public void rotateToUpright(Mat sensorImage, Mat dst) {
+        switch (this) {
+            case ROTATION_90: Core.rotate(sensorImage, dst, Core.ROTATE_90_CLOCKWISE); break;
+            case ROTATION_180: Core.rotate(sensorImage, dst, Core.ROTATE_180); break;
+            case ROTATION_270: Core.rotate(sensorImage, dst, Core.ROTATE_90_COUNTERCLOCKWISE); break;
+            default: sensorImage.copyTo(dst);
+        }
+    }
+
+    /***
+     * Rotates upright image to sensor orientation, used for rotating clothes, so they can be drawn directly into frames from the camera.
+     * @param uprightImage upright image
+     * @param dst destination
+     */
+    public void rotateToSensor(Mat uprightImage, Mat dst) {
+        switch (this) {
+            case ROTATION_90: Core.rotate(uprightImage, dst, Core.ROTATE_90_COUNTERCLOCKWISE); break;
+            case ROTATION_180: Core.rotate(uprightImage, dst, Core.ROTATE_180); break;
+            case ROTATION_270: Core.rotate(uprightImage, dst, Core.ROTATE_90_CLOCKWISE); break;
+            default: uprightImage.copyTo(dst);
+        }
+    }
+}
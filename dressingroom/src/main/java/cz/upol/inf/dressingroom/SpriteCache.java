@@ -0,0 +1,137 @@
+package cz.upol.inf.dressingroom;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+import java.nio.ByteBuffer;
+
+import cz.upol.inf.dressingroom.core.AlphaCompositor;
+import cz.upol.inf.dressingroom.core.LruCache;
+import cz.upol.inf.dressingroom.core.SpriteScale;
+
+/***
+ * Cache of resized clothes (sprites). Resizing of a large top is one of the most expensive steps of adding clothes, but the scale of the clothes
+ * changes only when the face changes, so sprites are cached by the prepared sprite and the quantized scale (see SpriteScale) and reused
+ * in the following frames. Least recently used sprites are released, when the cache exceeds its byte budget.
+ *
+ * Returned sprite is valid until the next call of getResized() or clear(), so sprites should be used from one thread at a time.
+ */
+class SpriteCache {
+    static final long DEFAULT_BUDGET = 16L * 1024 * 1024; // bytes
+
+    /*** Resized premultiplied sprite stored in a direct buffer, so it can be blended by AlphaCompositor without copying. */
+    static final class ScaledSprite {
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(0);
+        private Mat premultiplied = new Mat(); // RGBA, wraps the buffer
+
+        /*** Resizes the prepared sprite (from its mip pyramid) into this sprite, buffer is reused if it's large enough. */
+        void resize(PreparedSprite source, Size size) {
+            int bytes = (int) size.area() * AlphaCompositor.CHANNELS;
+            if(buffer.capacity() < bytes) buffer = ByteBuffer.allocateDirect(bytes);
+            if(premultiplied.width() != size.width || premultiplied.height() != size.height) {
+                premultiplied.release();
+                premultiplied = new Mat((int) size.height, (int) size.width, CvType.CV_8UC4, buffer);
+            }
+            source.resize(premultiplied, size);
+        }
+
+        /*** @return RGBA image wrapping the buffer, mustn't be changed nor released by the caller */
+        Mat getPremultiplied() {
+            return premultiplied;
+        }
+
+        ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        int getWidth() {
+            return premultiplied.width();
+        }
+
+        int getHeight() {
+            return premultiplied.height();
+        }
+
+        long bytes() {
+            return buffer.capacity();
+        }
+
+        void release() {
+            premultiplied.release();
+            buffer = ByteBuffer.allocateDirect(0); // direct memory is freed by the garbage collector
+        }
+    }
+
+    private final LruCache<Key, ScaledSprite> cache = new LruCache<>(DEFAULT_BUDGET, ScaledSprite::bytes, ScaledSprite::release);
+    private final ScaledSprite oversized = new ScaledSprite(); // sprite larger than the whole budget
+
+    /*** Identity of the prepared sprite and the level of the quantized scale. */
+    private static final class Key {
+        private final PreparedSprite source;
+        private final int level;
+
+        Key(PreparedSprite source, int level) {
+            this.source = source;
+            this.level = level;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return source == key.source && level == key.level;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(source) * 31 + level;
+        }
+    }
+
+    /***
+     * Returns prepared sprite resized by the quantized scale, the sprite is resized only if it isn't cached.
+     * @param source prepared sprite of the clothing (see DressingRoomClothes.getSprite())
+     * @param scale quantized scale (see SpriteScale.quantize())
+     * @return resized sprite, mustn't be changed nor released by the caller
+     */
+    ScaledSprite getResized(PreparedSprite source, double scale) {
+        Key key = new Key(source, SpriteScale.level(scale));
+        ScaledSprite sprite = cache.get(key);
+        if(sprite != null) {
+            DressingRoomMetrics.increment(DressingRoomMetrics.Counter.SPRITE_HIT);
+            return sprite;
+        }
+        DressingRoomMetrics.increment(DressingRoomMetrics.Counter.SPRITE_MISS);
+
+        Size size = scaledSize(source, scale);
+        boolean fits = size.area() * AlphaCompositor.CHANNELS <= cache.getBudget();
+        sprite = fits ? new ScaledSprite() : oversized;
+        sprite.resize(source, size);
+        if(fits) cache.put(key, sprite);
+        return sprite;
+    }
+
+    /***
+     * @param source prepared sprite
+     * @param scale quantized scale
+     * @return size of the sprite resized by the scale
+     */
+    static Size scaledSize(PreparedSprite source, double scale) {
+        Mat image = source.getPremultiplied();
+        return new Size(Math.max(1, Math.round(image.width() * scale)), Math.max(1, Math.round(image.height() * scale)));
+    }
+
+    /***
+     * @param bytes maximum size of the cached sprites in bytes, 0 turns caching off
+     */
+    void setBudget(long bytes) {
+        cache.setBudget(bytes);
+    }
+
+    /*** Releases all cached sprites. */
+    void clear() {
+        cache.clear();
+        oversized.release();
+    }
+}
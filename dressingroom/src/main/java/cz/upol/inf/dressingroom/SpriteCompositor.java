@@ -0,0 +1,107 @@
+package cz.upol.inf.dressingroom;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+
+import cz.upol.inf.dressingroom.core.AlphaCompositor;
+import cz.upol.inf.dressingroom.core.IntRect;
+import cz.upol.inf.dressingroom.core.SpriteWarp;
+
+/***
+ * Blends resized clothes into images with AlphaCompositor (premultiplied source over, 8-bit fixed-point), so semi-transparent edges
+ * of the clothes are blended instead of being either drawn or dropped by a binary mask. The region of the image is copied into a reusable
+ * direct buffer, blended in Java and copied back, the buffer is reallocated only when a larger region is needed. Large regions
+ * (e.g. clothes on photos) are blended in parallel. Clothes rotated by the roll of the head are warped into a small buffer of the size
+ * of the covered region first, so only the clothing is rotated, never the whole image.
+ *
+ * Instance should be used from one thread at a time.
+ */
+class SpriteCompositor {
+    private ByteBuffer staging = ByteBuffer.allocateDirect(0);
+    private Mat stagingMat = new Mat(); // declaration of Mat variables in the method was causing memory leaks
+    private Mat imageROI;
+    private ByteBuffer warped = ByteBuffer.allocateDirect(0);
+    private Mat warpedMat = new Mat();
+    private final Mat warpMatrix = new Mat(2, 3, CvType.CV_64F);
+
+    /***
+     * Blends part of the sprite into part of the image, both parts have the same size.
+     * @param sprite resized clothing
+     * @param spriteRoi part of the sprite
+     * @param image RGBA image (CV_8UC4)
+     * @param imageRoi part of the image
+     */
+    void blend(SpriteCache.ScaledSprite sprite, Rect spriteRoi, Mat image, Rect imageRoi) {
+        blend(sprite.getBuffer(), sprite.getWidth(), spriteRoi, image, imageRoi);
+    }
+
+    /***
+     * Blends part of a premultiplied RGBA image stored in a buffer into part of the image, both parts have the same size.
+     * @param src premultiplied RGBA pixels, rows aren't padded
+     * @param srcWidth width of the image in src
+     * @param srcRoi part of the image in src
+     * @param image RGBA image (CV_8UC4)
+     * @param imageRoi part of the image
+     */
+    void blend(ByteBuffer src, int srcWidth, Rect srcRoi, Mat image, Rect imageRoi) {
+        if(image.type() != CvType.CV_8UC4) throw new IllegalArgumentException("image must be RGBA (CV_8UC4)");
+
+        prepareStaging(imageRoi.height, imageRoi.width);
+        imageROI = image.submat(imageRoi);
+        imageROI.copyTo(stagingMat);
+
+        int srcStride = srcWidth * AlphaCompositor.CHANNELS;
+        AlphaCompositor.blendParallel(src, srcRoi.y * srcStride + srcRoi.x * AlphaCompositor.CHANNELS, srcStride,
+                staging, 0, imageRoi.width * AlphaCompositor.CHANNELS, imageRoi.width, imageRoi.height);
+
+        stagingMat.copyTo(imageROI);
+        imageROI.release();
+    }
+
+    /***
+     * Rotates the sprite into the region of the image given by the warp and blends it there.
+     * @param sprite resized clothing
+     * @param warp placement of the rotated clothing (see SpriteWarp)
+     * @param image RGBA image (CV_8UC4)
+     */
+    void blendWarped(SpriteCache.ScaledSprite sprite, SpriteWarp warp, Mat image) {
+        IntRect region = warp.region;
+        blend(warp(sprite, warp), region.width, new Rect(0, 0, region.width, region.height), image, new Rect(region.x, region.y, region.width, region.height));
+    }
+
+    /***
+     * Rotates the sprite into a reusable buffer of the size of the warp's region. Sprite is premultiplied, so bilinear interpolation
+     * with transparent border gives correctly blended edges.
+     * @param sprite resized clothing
+     * @param warp placement of the rotated clothing (see SpriteWarp)
+     * @return premultiplied RGBA pixels of the region, rows aren't padded, valid until the next call
+     */
+    ByteBuffer warp(SpriteCache.ScaledSprite sprite, SpriteWarp warp) {
+        int rows = warp.region.height;
+        int cols = warp.region.width;
+        if(warpedMat.rows() != rows || warpedMat.cols() != cols) {
+            int bytes = rows * cols * AlphaCompositor.CHANNELS;
+            if(warped.capacity() < bytes) warped = ByteBuffer.allocateDirect(bytes + bytes / 2);
+            warpedMat.release();
+            warpedMat = new Mat(rows, cols, CvType.CV_8UC4, warped);
+        }
+        warpMatrix.put(0, 0, warp.getMatrix());
+        Imgproc.warpAffine(sprite.getPremultiplied(), warpedMat, warpMatrix, warpedMat.size(), Imgproc.INTER_LINEAR,
+                Core.BORDER_CONSTANT, new Scalar(0, 0, 0, 0));
+        return warped;
+    }
+
+    private void prepareStaging(int rows, int cols) {
+        if(stagingMat.rows() == rows && stagingMat.cols() == cols) return;
+        int bytes = rows * cols * AlphaCompositor.CHANNELS;
+        if(staging.capacity() < bytes) staging = ByteBuffer.allocateDirect(bytes + bytes / 2); // room for slightly larger regions
+        stagingMat.release();
+        stagingMat = new Mat(rows, cols, CvType.CV_8UC4, staging);
+    }
+}
@@ -0,0 +1,138 @@
+package cz.upol.inf.dressingroom;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+
+import cz.upol.inf.dressingroom.core.DetectionTiles;
+import cz.upol.inf.dressingroom.core.FaceLandmarks;
+import cz.upol.inf.dressingroom.core.IntRect;
+
+/***
+ * Face detector splitting large images into overlapping tiles (see DetectionTiles), that are searched in parallel on a fork-join pool
+ * with one worker per core. detectMultiScale() runs on one thread only, so a large photo is otherwise searched by one core.
+ * Every worker uses its own clone of the detector (created by the factory, detectors aren't thread-safe), clones are kept between detections.
+ * Clones are created by the thread calling detect(), never by the workers, loading of a detector isn't thread-safe (e.g. cascades
+ * are copied into the same temporary file, see HaarCascade.loadClassifier()).
+ * Small faces are searched in the tiles, large faces in the whole image, faces detected twice are merged by non-maximum suppression.
+ * Every tile is converted to grayscale and equalized on its own, so results can slightly differ from the detection in the whole image.
+ */
+class TiledFaceDetector implements FaceDetector {
+    private final Supplier<FaceDetector> factory;
+    private final FaceDetector detector; // used for the parameters of the detection and for images, that aren't split into tiles
+    private final BlockingQueue<FaceDetector> idleClones = new LinkedBlockingQueue<>();
+    private int cloneCount = 0; // accessed only by the thread calling detect()
+    private final ForkJoinPool pool;
+    private final List<FaceLandmarks> landmarks = new ArrayList<>(); // relative landmarks of the faces returned by the last detection
+
+    /***
+     * @param factory creates a new detector of the same backend, called once for every worker by the thread calling detect()
+     */
+    TiledFaceDetector(Supplier<FaceDetector> factory) {
+        this(factory, Runtime.getRuntime().availableProcessors());
+    }
+
+    /***
+     * @param factory creates a new detector of the same backend, called once for every worker by the thread calling detect()
+     * @param workers number of parallel workers
+     */
+    TiledFaceDetector(Supplier<FaceDetector> factory, int workers) {
+        if(workers < 1) throw new IllegalArgumentException("at least one worker is required");
+        this.factory = factory;
+        this.detector = factory.get();
+        this.pool = new ForkJoinPool(workers); // threads of the pool are daemons and are stopped, when they aren't used
+    }
+
+    @Override
+    public List<Rect> detect(Mat image, int minFaceSize, int maxFaceSize) {
+        landmarks.clear();
+        DetectionTiles plan = DetectionTiles.plan(image.cols(), image.rows(), minFaceSize, maxFaceSize, pool.getParallelism());
+        if(plan.tiles.size() == 1) {
+            List<Rect> results = detector.detect(image, minFaceSize, maxFaceSize);
+            for (int i = 0; i < results.size(); i++) landmarks.add(detector.getLandmarks(i));
+            return results;
+        }
+
+        // clones are loaded before the workers start, the first large image loads one for every worker
+        while (cloneCount < pool.getParallelism()) {
+            idleClones.add(factory.get());
+            cloneCount++;
+        }
+
+        List<Callable<Map<IntRect, FaceLandmarks>>> tasks = new ArrayList<>();
+        if(plan.largeFaces) tasks.add(() -> detectInTile(image, null, plan.tileMaxFace, maxFaceSize));
+        for (IntRect tile : plan.tiles) tasks.add(() -> detectInTile(image, tile, minFaceSize, plan.tileMaxFace));
+
+        Map<IntRect, FaceLandmarks> detected = new IdentityHashMap<>();
+        try {
+            for (Future<Map<IntRect, FaceLandmarks>> future : pool.invokeAll(tasks)) detected.putAll(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("face detection in a tile failed", e.getCause());
+        }
+
+        List<Rect> results = new ArrayList<>();
+        for (IntRect face : DetectionTiles.suppress(new ArrayList<>(detected.keySet()), DetectionTiles.MAX_OVERLAP)) {
+            results.add(new Rect(face.x, face.y, face.width, face.height));
+            landmarks.add(detected.get(face));
+        }
+        return results;
+    }
+
+    /***
+     * @param tile searched region of the image, null for the whole image
+     * @return detected faces in image's coordinates with their relative landmarks (null if the backend doesn't detect landmarks)
+     */
+    private Map<IntRect, FaceLandmarks> detectInTile(Mat image, IntRect tile, int minFaceSize, int maxFaceSize) throws InterruptedException {
+        FaceDetector clone = idleClones.take(); // there is a clone for every worker, a task waits only if the calling thread helps the workers
+        Mat tileImage = tile == null ? image : image.submat(tile.y, tile.y + tile.height, tile.x, tile.x + tile.width);
+        try {
+            Map<IntRect, FaceLandmarks> faces = new IdentityHashMap<>();
+            List<Rect> results = clone.detect(tileImage, minFaceSize, maxFaceSize);
+            int offsetX = tile == null ? 0 : tile.x;
+            int offsetY = tile == null ? 0 : tile.y;
+            for (int i = 0; i < results.size(); i++) {
+                Rect face = results.get(i);
+                faces.put(new IntRect(face.x + offsetX, face.y + offsetY, face.width, face.height), clone.getLandmarks(i));
+            }
+            return faces;
+        } finally {
+            if(tileImage != image) tileImage.release();
+            idleClones.add(clone);
+        }
+    }
+
+    @Override
+    public FaceLandmarks getLandmarks(int index) {
+        return index < landmarks.size() ? landmarks.get(index) : null;
+    }
+
+    @Override
+    public int getMinFaceSize() {
+        return detector.getMinFaceSize();
+    }
+
+    @Override
+    public int getMaxInputWidth() {
+        return detector.getMaxInputWidth();
+    }
+
+    @Override
+    public Backend getBackend() {
+        return detector.getBackend();
+    }
+}
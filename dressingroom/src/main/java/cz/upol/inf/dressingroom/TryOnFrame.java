@@ -0,0 +1,59 @@
+package cz.upol.inf.dressingroom;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/***
+ * Frame travelling through the TryOnPipeline. Frames are preallocated in a pool and reused, so the Mats inside are allocated
+ * only with the first frames. Frame can be used by more stages at the same time, every stage that receives the frame
+ * owns one reference and has to call release() once it's done with the frame. When the last reference is released,
+ * frame is returned to the pool.
+ */
+class TryOnFrame {
+    final Mat sensor = new Mat(); // frame in sensor orientation as it was captured by the camera (shares pixels with it), clothes are drawn into this Mat
+    final Mat gray = new Mat(); // upright grayscale version of the frame, used by detection and waist calibration (read only)
+    volatile Rect face = new Rect(); // face detected in this frame
+    long timestamp;
+    long number; // order of the frame from the camera, frames dropped anywhere in the pipeline are counted as well
+
+    private final AtomicInteger references = new AtomicInteger();
+    private final Queue<TryOnFrame> pool;
+
+    TryOnFrame(Queue<TryOnFrame> pool) {
+        this.pool = pool;
+    }
+
+    /*** Marks the frame as used by the first owner, called when the frame is taken from the pool. */
+    void acquire(long timestamp, long number) {
+        this.timestamp = timestamp;
+        this.number = number;
+        this.face = new Rect();
+        references.set(1);
+    }
+
+    /*** Adds a reference, must be called before the frame is given to another stage. */
+    TryOnFrame retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    /***
+     * Releases one reference, when there are no references left the frame is returned to the pool. Pixels of the camera's frame
+     * are released as well, the next frame from the camera brings its own.
+     */
+    void release() {
+        if(references.decrementAndGet() == 0) {
+            sensor.release();
+            pool.offer(this);
+        }
+    }
+
+    /*** Releases native memory of the frame. Frame can't be used after calling this method. */
+    void dispose() {
+        sensor.release();
+        gray.release();
+    }
+}
@@ -0,0 +1,305 @@
+package cz.upol.inf.dressingroom;
+
+import android.util.Log;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/***
+ * Asynchronous real time try-on pipeline. Real time path is split into stages, every stage (except capture) runs on its own thread
+ * and has its own bounded queue with a configurable DropPolicy, so a slow stage never blocks the others:
+ *
+ * CAPTURE - runs on the camera thread (method submitFrame()), a frame from a preallocated pool takes a reference to the camera's
+ *           frame, pixels aren't copied. If the pool is exhausted (all stages are busy), the new frame is dropped.
+ * COLOR_CONVERSION - frame is converted to grayscale, only the grayscale image is rotated to upright position for detection.
+ *           Frame is then given to FACE_DETECTION and to COMPOSITING.
+ * FACE_DETECTION - face is detected in the grayscale frame, the result is published and used for all following frames.
+ *           If the outfit contains tops and the waist isn't calibrated, frame is given to WAIST_CALIBRATION.
+ *           If the outfit contains glasses or face masks, frame is given to HEAD_ROLL at most once per head roll interval,
+ *           unless landmarks are detected with the face (see FaceDetector.getLandmarks()), which update the roll in every detected frame.
+ * WAIST_CALIBRATION - waist calibration is run on the grayscale frame with the face detected in the same frame.
+ * HEAD_ROLL - roll of the head is estimated from the eyes in the upper half of the face (see DressingRoom.estimateHeadRoll()).
+ * COMPOSITING - clothes are added directly into the frame in sensor orientation using the face predicted at the time of the frame.
+ * DISPLAY - frame is published through a FrameExchange for the camera thread, which picks it up with method getDisplayFrame().
+ *           The exchange shares the frame's pixels, so the frame returns to the pool right away.
+ *
+ * Color frames are never rotated, the face is detected in upright coordinates and clothes are mapped to the sensor orientation
+ * (see SensorOrientation), so the frame stays in the orientation of the camera for the whole pipeline.
+ *
+ * Detection, waist calibration and head roll estimation are side branches, frames are displayed as soon as they are composited and don't wait for them.
+ * Stages can be configured with method configureStage() before the pipeline is started by method start().
+ * Method loadClassifiers() in DressingRoom must be called before the pipeline is started.
+ *
+ * WARNING: DressingRoom uses static Mat variables in detection and in drawing of the clothes. While the pipeline is running,
+ * methods getFace(), addClothesRT(), calibrateWaistWidth() and estimateHeadRoll() shouldn't be called from other threads.
+ */
+public class TryOnPipeline {
+    /*** Stages of the pipeline, that have their own thread and queue. */
+    public enum Stage {
+        COLOR_CONVERSION,
+        FACE_DETECTION,
+        WAIST_CALIBRATION,
+        HEAD_ROLL,
+        COMPOSITING,
+        DISPLAY
+    }
+
+    private static final String TAG = "TryOnPipeline";
+    private static final long SHUTDOWN_TIMEOUT = 500; // milliseconds per stage
+    public static final long DEFAULT_HEAD_ROLL_INTERVAL = 200; // milliseconds, the roll is smoothed between estimations
+
+    private final Map<Stage, Integer> capacities = new EnumMap<>(Stage.class);
+    private final Map<Stage, DropPolicy> dropPolicies = new EnumMap<>(Stage.class);
+    private final Map<Stage, PipelineStage<TryOnFrame>> stages = new EnumMap<>(Stage.class);
+
+    private final Queue<TryOnFrame> framePool = new ConcurrentLinkedQueue<>();
+    private int frameCount; // number of frames created by start()
+    private final WaistSession waistSession = new WaistSession(); // calibrated by WAIST_CALIBRATION, reset by start()
+    private final AtomicLong droppedCaptureCounter = new AtomicLong();
+
+    private final SensorOrientation orientation;
+    private final Mat sensorGray = new Mat(); // accessed only by COLOR_CONVERSION
+    private volatile FrameExchange displayExchange; // DISPLAY is the producer, the camera thread is the consumer, created by start()
+    private Mat displayFrame; // accessed only by the camera thread, owned by displayExchange
+    private long capturedFrames = 0; // accessed only by the camera thread, numbers the frames for the face tracker
+
+    private volatile Outfit outfit = new Outfit();
+    private volatile Rect face = new Rect();
+    private volatile boolean running = false;
+    private volatile long headRollIntervalNanos = DEFAULT_HEAD_ROLL_INTERVAL * 1_000_000L;
+    private long lastHeadRollTimestamp; // accessed only by FACE_DETECTION
+
+    /***
+     * Creates a pipeline with default configuration of the stages.
+     * @param orientation orientation of the camera sensor, frames are expected in this orientation
+     */
+    public TryOnPipeline(SensorOrientation orientation) {
+        this.orientation = orientation;
+        for (Stage stage : Stage.values()) {
+            capacities.put(stage, 1);
+            dropPolicies.put(stage, DropPolicy.DROP_OLDEST);
+        }
+        // the newest frame will be displayed, one frame can wait while the previous one is being composited
+        capacities.put(Stage.COMPOSITING, 2);
+    }
+
+    /***
+     * Sets capacity and drop policy of the stage's queue. Stages can be configured only before the pipeline is started.
+     * @param stage configured stage
+     * @param capacity maximum number of frames waiting for the stage (at least 1)
+     * @param dropPolicy determines which frame is dropped when the queue is full
+     */
+    public void configureStage(Stage stage, int capacity, DropPolicy dropPolicy) {
+        if(running) throw new IllegalStateException("stages can't be configured while the pipeline is running");
+        if(capacity < 1) throw new IllegalArgumentException("capacity must be at least 1");
+        capacities.put(stage, capacity);
+        dropPolicies.put(stage, dropPolicy);
+    }
+
+    /***
+     * Starts threads of all stages. Frame pool is sized, so every stage can have a full queue and process one frame at the same time.
+     */
+    public synchronized void start() {
+        if(running) return;
+        // frames returned late by stages, that didn't finish in time, when the pipeline was stopped
+        TryOnFrame leftover;
+        while ((leftover = framePool.poll()) != null) leftover.dispose();
+
+        frameCount = 0; // displayed frames are kept by the exchange, not by frames of the pool
+        for (Stage stage : Stage.values()) {
+            frameCount += capacities.get(stage) + 1;
+        }
+        for (int i = 0; i < frameCount; i++) {
+            framePool.offer(new TryOnFrame(framePool));
+        }
+
+        lastHeadRollTimestamp = System.nanoTime() - headRollIntervalNanos; // the first detected face is estimated immediately
+        DressingRoom.resetFace(); // filters would predict the face from the velocity and time of the previous session
+        DressingRoom.recalculateWaistWidth(); // waist calibrated in the previous session could belong to someone else
+        waistSession.reset();
+        displayExchange = new FrameExchange();
+        displayFrame = null;
+        createStage(Stage.COLOR_CONVERSION, this::convertColor);
+        createStage(Stage.FACE_DETECTION, this::detectFace);
+        createStage(Stage.WAIST_CALIBRATION, this::calibrateWaist);
+        createStage(Stage.HEAD_ROLL, this::estimateHeadRoll);
+        createStage(Stage.COMPOSITING, this::composite);
+        createStage(Stage.DISPLAY, this::display);
+        running = true;
+    }
+
+    private void createStage(Stage stage, Consumer<TryOnFrame> task) {
+        stages.put(stage, new PipelineStage<>(stage.name(), capacities.get(stage), dropPolicies.get(stage), task, TryOnFrame::release));
+    }
+
+    /***
+     * CAPTURE stage, should be called from the camera thread with every frame. Method never blocks, if all frames are in use,
+     * the given frame is dropped. Frame isn't copied, the pipeline keeps a reference to its pixels and draws the clothes into them,
+     * so the caller mustn't write into the frame after this call. JavaCamera2View allocates a new Mat for every frame, so its frames
+     * can be submitted directly (the camera's own release() of the frame doesn't free pixels referenced by the pipeline).
+     * @param cameraFrame RGBA frame from the camera, it must not be changed by the caller afterward
+     */
+    public void submitFrame(Mat cameraFrame) {
+        if(!running) return;
+        long number = capturedFrames++;
+        TryOnFrame frame = framePool.poll();
+        if(frame == null) {
+            droppedCaptureCounter.incrementAndGet();
+            return;
+        }
+        frame.acquire(System.nanoTime(), number);
+        cameraFrame.assignTo(frame.sensor); // shares pixels with the camera's Mat, only the header is assigned
+        stages.get(Stage.COLOR_CONVERSION).offer(frame);
+    }
+
+    /***
+     * Should be called from the camera thread. Returned Mat can be used until this method is called again, it mustn't be released.
+     * @return the newest composited frame in the orientation of the camera, or null if no frame was composited yet
+     */
+    public Mat getDisplayFrame() {
+        if(!running) return null;
+        Mat latest = displayExchange.acquireLatest(); // previously displayed frame is given back to the exchange
+        if(latest != null) displayFrame = latest;
+        return displayFrame;
+    }
+
+    /***
+     * Sets how often the roll of the head is estimated. Eye detection is cheaper than the face detection, but running it in every
+     * frame isn't necessary, the roll is smoothed between estimations. Interval can be changed while the pipeline is running.
+     * @param intervalMillis minimum time between two estimations in milliseconds, 0 estimates the roll in every detected frame
+     */
+    public void setHeadRollInterval(long intervalMillis) {
+        if(intervalMillis < 0) throw new IllegalArgumentException("interval cannot be negative");
+        headRollIntervalNanos = intervalMillis * 1_000_000L;
+    }
+
+    /*** @param outfit outfit that will be added to the following frames, outfit is copied */
+    public void setOutfit(Outfit outfit) {
+        this.outfit = new Outfit(outfit);
+    }
+
+    /*** @return most recently detected face in upright coordinates, empty rectangle if no face is detected */
+    public Rect getFace() {
+        return face;
+    }
+
+    /***
+     * @param stage stage of the pipeline
+     * @return number of frames dropped by the stage's queue
+     */
+    public long getDroppedFrames(Stage stage) {
+        PipelineStage<TryOnFrame> pipelineStage = stages.get(stage);
+        return pipelineStage == null ? 0 : pipelineStage.getDroppedCount();
+    }
+
+    /*** @return number of camera frames, that were dropped, because there was no free frame in the pool */
+    public long getDroppedCaptureFrames() {
+        return droppedCaptureCounter.get();
+    }
+
+    // COLOR_CONVERSION
+    private void convertColor(TryOnFrame frame) {
+        // only the single channel image is rotated, cascade classifiers can detect only upright faces
+        Imgproc.cvtColor(frame.sensor, sensorGray, Imgproc.COLOR_BGR2GRAY);
+        orientation.rotateToUpright(sensorGray, frame.gray);
+
+        stages.get(Stage.FACE_DETECTION).offer(frame.retain());
+        stages.get(Stage.COMPOSITING).offer(frame);
+    }
+
+    // FACE_DETECTION
+    private void detectFace(TryOnFrame frame) {
+        // frames dropped before the detection are skipped by the face tracker, frame numbers tell it how far the face could move
+        Rect detectedFace = DressingRoom.getFace(frame.gray, frame.timestamp, frame.number);
+        frame.face = detectedFace;
+        face = detectedFace;
+
+        if(!detectedFace.empty() && !outfit.getTops().isEmpty() && !DressingRoom.isWaistCalibrated()) {
+            stages.get(Stage.WAIST_CALIBRATION).offer(frame.retain());
+        }
+        Outfit currentOutfit = outfit;
+        // landmarks detected with the face already update the roll
+        boolean rollNeeded = (!currentOutfit.getGlasses().isEmpty() || !currentOutfit.getFaceMasks().isEmpty()) && !DressingRoom.hasFaceLandmarks();
+        if(!detectedFace.empty() && rollNeeded && frame.timestamp - lastHeadRollTimestamp >= headRollIntervalNanos) {
+            lastHeadRollTimestamp = frame.timestamp;
+            stages.get(Stage.HEAD_ROLL).offer(frame.retain());
+        }
+        frame.release();
+    }
+
+    // HEAD_ROLL
+    private void estimateHeadRoll(TryOnFrame frame) {
+        DressingRoom.estimateHeadRoll(frame.gray, frame.face, frame.timestamp);
+        frame.release();
+    }
+
+    // WAIST_CALIBRATION
+    private void calibrateWaist(TryOnFrame frame) {
+        DressingRoom.calibrateWaistWidth(frame.gray, frame.face, waistSession);
+        frame.release();
+    }
+
+    // COMPOSITING
+    private void composite(TryOnFrame frame) {
+        // face is predicted at the time the frame was captured, detection results are older than the frame
+        Rect currentFace = DressingRoom.predictFace(frame.timestamp);
+        if(!currentFace.empty()) DressingRoom.addClothesRT(frame.sensor, outfit, currentFace, DressingRoom.predictHeadRoll(frame.timestamp), orientation);
+        stages.get(Stage.DISPLAY).offer(frame);
+    }
+
+    // DISPLAY
+    private void display(TryOnFrame frame) {
+        // only the header is assigned, pixels of the frame that wasn't picked up by the camera thread in time are freed by the assignment
+        frame.sensor.assignTo(displayExchange.getWriteBuffer());
+        displayExchange.publish();
+        frame.release();
+    }
+
+    /***
+     * Stops all stages and releases all frames. Pipeline can be started again afterward.
+     * Method should be called from the camera thread (or once the camera thread stopped calling submitFrame() and getDisplayFrame()).
+     * If a stage doesn't finish within SHUTDOWN_TIMEOUT, frames it holds can't be released, they are reported in the log
+     * and disposed, once they are returned to the pool (by the next start()).
+     */
+    public synchronized void stop() {
+        if(!running) return;
+        running = false;
+        StringBuilder unfinished = new StringBuilder();
+        boolean colorConversionFinished = true;
+        boolean displayFinished = true;
+        for (Stage stage : Stage.values()) {
+            if(!stages.get(stage).shutdown(SHUTDOWN_TIMEOUT)) {
+                unfinished.append(' ').append(stage);
+                if(stage == Stage.COLOR_CONVERSION) colorConversionFinished = false;
+                if(stage == Stage.DISPLAY) displayFinished = false;
+            }
+        }
+        // stages, that finished after they were stopped, could have offered frames to stages, that were already stopped
+        for (Stage stage : Stage.values()) {
+            stages.get(stage).releaseQueued();
+        }
+
+        if(displayFinished) displayExchange.release(); // otherwise DISPLAY can still write into it, next start() creates a new exchange
+        displayFrame = null;
+
+        int disposed = 0;
+        TryOnFrame frame;
+        while ((frame = framePool.poll()) != null) {
+            frame.dispose();
+            disposed++;
+        }
+        if(disposed < frameCount) {
+            Log.w(TAG, (frameCount - disposed) + " frames weren't released, stages still running:" + (unfinished.length() > 0 ? unfinished : " none"));
+        }
+        if(colorConversionFinished) sensorGray.release(); // otherwise it's reused by the next start()
+        face = new Rect();
+    }
+}
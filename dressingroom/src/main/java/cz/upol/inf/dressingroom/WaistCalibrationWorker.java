@@ -0,0 +1,52 @@
+package cz.upol.inf.dressingroom;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/***
+ * Runs real time waist calibration on a background thread, so edge detection in the hip regions doesn't stall the thread adding clothes
+ * (e.g. the camera thread calling addClothesRT()). The frame is downscaled into a preallocated job (see DressingRoom.downscaleForWaist()),
+ * which is cheaper than a copy of the full frame, and calibrated by DressingRoom.calibrateWaistWidth() with the worker's own session
+ * (see WaistSession). The calibrated waist is published atomically by DressingRoom, tops appear in the first frame after the calibration converged.
+ *
+ * Only the newest frame waits for the calibration, when all jobs are in use, the frame is skipped.
+ */
+class WaistCalibrationWorker {
+    private static final int JOB_COUNT = 3; // one being calibrated, one waiting and one being filled
+
+    /*** Downscaled frame with the face detected in it. */
+    private static final class Job {
+        final Mat image = new Mat(); // declaration of Mat variables in the method was causing memory leaks
+        Rect face;
+    }
+
+    private final WaistSession session = new WaistSession(); // used only by the thread of the stage
+    private final Queue<Job> freeJobs = new ConcurrentLinkedQueue<>();
+    private final PipelineStage<Job> stage = new PipelineStage<>("WAIST_CALIBRATION", 1, DropPolicy.DROP_OLDEST, this::calibrate, freeJobs::offer);
+
+    WaistCalibrationWorker() {
+        for (int i = 0; i < JOB_COUNT; i++) freeJobs.offer(new Job());
+    }
+
+    /***
+     * Queues the frame for calibration, the frame isn't changed and can be reused after the method returns.
+     * @param frame upright frame (RGBA or grayscale)
+     * @param face face detected in the frame
+     * @return false if the frame was skipped
+     */
+    boolean submit(Mat frame, Rect face) {
+        Job job = freeJobs.poll();
+        if(job == null) return false;
+        job.face = DressingRoom.downscaleForWaist(frame, face, job.image);
+        return stage.offer(job);
+    }
+
+    private void calibrate(Job job) {
+        // frames aren't submitted once the waist is calibrated, scratch buffers are allocated again after a reset
+        if(DressingRoom.calibrateWaistWidth(job.image, job.face, session)) ScratchPool.forCurrentThread().clear();
+        freeJobs.offer(job);
+    }
+}
@@ -0,0 +1,11 @@
+package cz.upol.inf.dressingroom;
+
+/***
+ * Determines how the edges of the body are found in the hip regions during waist calibration (see DressingRoom.setWaistDetector()).
+ */
+public enum WaistDetector {
+    /*** Contours are extracted from the edges and the innermost contour point is selected in every row. */
+    CONTOURS,
+    /*** Edges are scanned row by row from the side of the torso, no contours are built. Cheap enough to run in every frame. */
+    EDGE_SCAN
+}
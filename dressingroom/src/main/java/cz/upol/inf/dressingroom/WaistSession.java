@@ -0,0 +1,33 @@
+package cz.upol.inf.dressingroom;
+
+import cz.upol.inf.dressingroom.core.EdgeMap;
+import cz.upol.inf.dressingroom.core.WaistCalibrator;
+
+/***
+ * Waist calibration of one session, e.g. one run of TryOnPipeline, the background calibration of addClothesRT() (see WaistCalibrationWorker)
+ * or one standalone photo. Session owns the waist widths collected so far (see WaistCalibrator), so sessions don't mix widths measured
+ * in unrelated images. Session should be reset when it starts, it's also reset before its next calibration step, once the waist was reset
+ * by DressingRoom.recalculateWaistWidth() (e.g. when the face disappears).
+ *
+ * Session also owns the buffers of the edge detection in the hip regions, so sessions calibrated by different threads (e.g. the worker
+ * and a photo) never share them. Session isn't thread-safe, it has to be calibrated by one thread at a time.
+ */
+public class WaistSession {
+    final WaistCalibrator calibrator = new WaistCalibrator();
+    long resetCount; // value of DressingRoom's reset counter, when the session was last reset
+    long calibrationStart = 0; // time of the first calibration attempt, used for metrics
+    final EdgeMap leftEdges = new EdgeMap(true); // rightmost edge in every row of the left hip region
+    final EdgeMap rightEdges = new EdgeMap(false); // leftmost edge in every row of the right hip region
+    byte[] edgePixels = new byte[0]; // pixels of the edge mask scanned by WaistDetector.EDGE_SCAN
+
+    public WaistSession() {
+        resetCount = DressingRoom.getWaistResetCount();
+    }
+
+    /*** Forgets collected waist widths, the next calibration starts from scratch. */
+    public void reset() {
+        calibrator.reset();
+        calibrationStart = 0;
+        resetCount = DressingRoom.getWaistResetCount();
+    }
+}
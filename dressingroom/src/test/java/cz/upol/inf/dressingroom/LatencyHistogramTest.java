@@ -0,0 +1,40 @@
+package cz.upol.inf.dressingroom;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentiles_withinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) histogram.record(i * 1_000_000L); // 1 to 100 ms
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50e6, histogram.getPercentileNanos(50), 50e6 * 0.05);
+        assertEquals(95e6, histogram.getPercentileNanos(95), 95e6 * 0.05);
+        assertEquals(100_000_000L, histogram.getMaxNanos());
+        assertEquals(50.5e6, histogram.getMeanNanos(), 1);
+    }
+
+    @Test
+    public void empty_returnsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(99), 0);
+        histogram.record(5000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(50), 0);
+    }
+
+    @Test
+    public void bucketIndex_isMonotonic() {
+        int previous = 0;
+        for (long nanos = 0; nanos < 10_000_000_000L; nanos = nanos * 3 / 2 + 1) {
+            int index = LatencyHistogram.bucketIndex(nanos);
+            assertTrue(index >= previous);
+            previous = index;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package cz.upol.inf.dressingroom;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+import static org.junit.Assert.*;
+
+public class OverlayKeyTest {
+    private static final int WIDTH = 640, HEIGHT = 480; // frame in sensor orientation
+    private final Outfit outfit = new Outfit();
+
+    private OverlayKey keyFor(Rect face, Rect bounds) {
+        OverlayKey key = new OverlayKey();
+        key.save(WIDTH, HEIGHT, outfit, face, 0.5, 2, SensorOrientation.ROTATION_90, bounds);
+        return key;
+    }
+
+    @Test
+    public void jitteryFace_reusesMovedLayer() {
+        Rect face = new Rect(180, 150, 120, 120);
+        Rect bounds = new Rect(100, 120, 300, 200);
+        OverlayKey key = keyFor(face, bounds);
+
+        // predicted face of a still head moves by a pixel or two and its size is rounded differently
+        int[][] jitter = {{1, 0, 0, 1}, {-1, 2, 1, 0}, {2, -2, -1, -1}, {0, 1, 1, 1}, {-2, -1, 0, -1}};
+        for (int[] d : jitter) {
+            Rect jittered = new Rect(face.x + d[0], face.y + d[1], face.width + d[2], face.height + d[3]);
+            assertTrue(jittered.toString(), key.matches(WIDTH, HEIGHT, outfit, jittered, 0.5, 2, SensorOrientation.ROTATION_90));
+
+            // upright (dx, dy) is (dy, -dx) in a frame rotated by 90 degrees
+            Rect moved = key.boundsFor(jittered);
+            assertEquals(new Rect(bounds.x + d[1], bounds.y - d[0], bounds.width, bounds.height), moved);
+        }
+        assertEquals(bounds, key.boundsFor(face));
+    }
+
+    @Test
+    public void changedFaceSizeOrRoll_rebuildsLayer() {
+        Rect face = new Rect(180, 150, 120, 120);
+        OverlayKey key = keyFor(face, new Rect(100, 120, 300, 200));
+
+        assertFalse(key.matches(WIDTH, HEIGHT, outfit, new Rect(180, 150, 123, 123), 0.5, 2, SensorOrientation.ROTATION_90));
+        assertFalse(key.matches(WIDTH, HEIGHT, outfit, face, 0.5, 3, SensorOrientation.ROTATION_90));
+        assertFalse(key.matches(WIDTH, HEIGHT, outfit, face, 0.6, 2, SensorOrientation.ROTATION_90));
+        key.invalidate();
+        assertFalse(key.matches(WIDTH, HEIGHT, outfit, face, 0.5, 2, SensorOrientation.ROTATION_90));
+    }
+
+    @Test
+    public void layerClippedByFrame_isReusedOnlyAtTheSamePosition() {
+        Rect face = new Rect(180, 150, 120, 120);
+        OverlayKey key = keyFor(face, new Rect(0, 120, 300, 200)); // touches the left border, could be clipped
+
+        assertTrue(key.matches(WIDTH, HEIGHT, outfit, face, 0.5, 2, SensorOrientation.ROTATION_90));
+        assertFalse(key.matches(WIDTH, HEIGHT, outfit, new Rect(181, 150, 120, 120), 0.5, 2, SensorOrientation.ROTATION_90));
+    }
+}
@@ -0,0 +1,48 @@
+package cz.upol.inf.dressingroom;
+
+import org.junit.Test;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import static org.junit.Assert.*;
+
+public class SensorOrientationTest {
+    private final Size sensorSize = new Size(640, 480);
+
+    @Test
+    public void rotation90_matchesTransposeAndFlip() {
+        // transpose (x, y) -> (y, x), flip around y axis in image with width 480 -> (480 - y, x)
+        Point upright = SensorOrientation.ROTATION_90.toUpright(new Point(100, 50), sensorSize);
+        assertEquals(new Point(430, 100), upright);
+        assertEquals(new Size(480, 640), SensorOrientation.ROTATION_90.toUprightSize(sensorSize));
+    }
+
+    @Test
+    public void points_roundTrip() {
+        Point point = new Point(123.5, 77.25);
+        for (SensorOrientation orientation : SensorOrientation.values()) {
+            Point upright = orientation.toUpright(point, sensorSize);
+            assertEquals(orientation.name(), point, orientation.toSensor(upright, sensorSize));
+        }
+    }
+
+    @Test
+    public void rects_roundTrip() {
+        Rect rect = new Rect(10, 20, 100, 60);
+        for (SensorOrientation orientation : SensorOrientation.values()) {
+            Rect upright = orientation.toUpright(rect, sensorSize);
+            if(orientation.swapsDimensions()) {
+                assertEquals(rect.width, upright.height);
+                assertEquals(rect.height, upright.width);
+            }
+            assertEquals(orientation.name(), rect, orientation.toSensor(upright, sensorSize));
+        }
+    }
+
+    @Test
+    public void fromDegrees_normalizesAngle() {
+        assertEquals(SensorOrientation.ROTATION_270, SensorOrientation.fromDegrees(-90));
+        assertEquals(SensorOrientation.ROTATION_90, SensorOrientation.fromDegrees(450));
+    }
+}